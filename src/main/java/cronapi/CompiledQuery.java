@@ -0,0 +1,270 @@
+package cronapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import cronapi.database.JPQLConverter;
+import cronapi.rest.security.Authorization;
+
+/**
+ * Immutable form of a query of customQuery.json. The JPQL, the parameters,
+ * the roles of each verb and field and the calculated fields are read from
+ * the JSON once, when the query is first used, instead of on each request.
+ * Instances are obtained from {@link QueryManager#compile(JsonObject)}.
+ */
+public final class CompiledQuery {
+
+  private static final Set<String> DEFAULT_ROLES = Collections.singleton("authenticated");
+
+  private final String type;
+  private final String jpql;
+  private final boolean multiTenant;
+  private final List<QueryParam> params;
+  private final Map<String, Boolean> verbs;
+  private final Map<String, Set<String>> verbRoles;
+  // permission -> field -> roles
+  private final Map<String, Map<String, Set<String>>> fieldRoles;
+  private final List<CalcField> calcFields;
+
+  CompiledQuery(JsonObject query) {
+    type = isNull(query.get("sourceType")) ? "entityFullName" : query.get("sourceType").getAsString();
+
+    String text = null;
+    boolean tenant = isNull(query.get("multiTenant")) || query.get("multiTenant").getAsBoolean();
+    if (!isNull(query.get("query"))) {
+      if (query.get("query").isJsonObject()) {
+        JsonObject queryObj = query.get("query").getAsJsonObject();
+        if (!isNull(queryObj.get("isRawSql")) && queryObj.get("isRawSql").getAsBoolean()) {
+          text = queryObj.get("sqlContent").getAsString();
+        } else {
+          text = JPQLConverter.sqlFromJson(queryObj);
+        }
+        if (!isNull(queryObj.get("multiTenant")) && !queryObj.get("multiTenant").getAsBoolean()) {
+          tenant = false;
+        }
+      } else {
+        text = query.get("query").getAsString();
+        if (text.contains("/*notenant*/")) {
+          tenant = false;
+          text = text.replace("/*notenant*/", "");
+        }
+      }
+    }
+    jpql = text;
+    multiTenant = tenant;
+
+    List<QueryParam> paramList = new ArrayList<>();
+    if (!isNull(query.get("queryParamsValues"))) {
+      for (JsonElement element : query.get("queryParamsValues").getAsJsonArray()) {
+        paramList.add(new QueryParam(element.getAsJsonObject().get("fieldValue")));
+      }
+    }
+    params = Collections.unmodifiableList(paramList);
+
+    Map<String, Boolean> verbMap = new HashMap<>();
+    Map<String, Set<String>> verbRoleMap = new HashMap<>();
+    if (!isNull(query.get("verbs"))) {
+      for (Entry<String, JsonElement> entry : query.getAsJsonObject("verbs").entrySet()) {
+        if (isNull(entry.getValue())) {
+          continue;
+        }
+        if (entry.getKey().endsWith("Authorities")) {
+          JsonArray authorities = entry.getValue().getAsJsonArray();
+          if (authorities.size() > 0) {
+            Set<String> roles = new HashSet<>();
+            for (JsonElement role : authorities) {
+              roles.add(role.getAsString().toLowerCase());
+            }
+            verbRoleMap.put(entry.getKey().substring(0, entry.getKey().length() - "Authorities".length()),
+                Collections.unmodifiableSet(roles));
+          }
+        } else if (entry.getValue().isJsonPrimitive()) {
+          verbMap.put(entry.getKey(), entry.getValue().getAsBoolean());
+        }
+      }
+    }
+    verbs = Collections.unmodifiableMap(verbMap);
+    verbRoles = Collections.unmodifiableMap(verbRoleMap);
+
+    Map<String, Map<String, Set<String>>> permissionMap = new HashMap<>();
+    if (!isNull(query.get("security"))) {
+      for (Entry<String, JsonElement> entry : query.getAsJsonObject("security").entrySet()) {
+        if (isNull(entry.getValue())) {
+          continue;
+        }
+        for (Entry<String, JsonElement> permission : entry.getValue().getAsJsonObject().entrySet()) {
+          if (!isNull(permission.getValue())) {
+            permissionMap.computeIfAbsent(permission.getKey().toLowerCase(), k -> new LinkedHashMap<>())
+                .put(entry.getKey(), toRoles(permission.getValue().getAsString()));
+          }
+        }
+      }
+    }
+    for (Entry<String, Map<String, Set<String>>> entry : permissionMap.entrySet()) {
+      entry.setValue(Collections.unmodifiableMap(entry.getValue()));
+    }
+    fieldRoles = Collections.unmodifiableMap(permissionMap);
+
+    List<CalcField> calcList = new ArrayList<>();
+    if (!isNull(query.get("calcFields"))) {
+      JsonObject calcSecurity = isNull(query.get("calcFieldsSecurity")) ? null
+          : query.getAsJsonObject("calcFieldsSecurity");
+      for (Entry<String, JsonElement> entry : query.getAsJsonObject("calcFields").entrySet()) {
+        Set<String> roles = null;
+        if (calcSecurity != null && !isNull(calcSecurity.get(entry.getKey()))
+            && !isNull(calcSecurity.getAsJsonObject(entry.getKey()).get("get"))) {
+          roles = toRoles(calcSecurity.getAsJsonObject(entry.getKey()).get("get").getAsString());
+        }
+        calcList.add(new CalcField(entry.getKey(), entry.getValue(), roles));
+      }
+    }
+    calcFields = Collections.unmodifiableList(calcList);
+  }
+
+  private static boolean isNull(JsonElement value) {
+    return value == null || value.isJsonNull();
+  }
+
+  private static Set<String> toRoles(String roles) {
+    return Authorization.parseRoles(roles);
+  }
+
+  public String getType() {
+    return type;
+  }
+
+  public boolean isBlockly() {
+    return "blockly".equals(type);
+  }
+
+  /**
+   * @return the JPQL of the query, without the notenant marker
+   */
+  public String getJpql() {
+    return jpql;
+  }
+
+  public boolean isMultiTenant() {
+    return multiTenant;
+  }
+
+  public List<QueryParam> getParams() {
+    return params;
+  }
+
+  public boolean isVerbEnabled(String verb) {
+    Boolean enabled = verbs.get(verb);
+    return enabled != null && enabled;
+  }
+
+  /**
+   * @return the roles allowed to use the verb, authenticated when not defined
+   */
+  public Set<String> getVerbRoles(String verb) {
+    Set<String> roles = verbRoles.get(verb);
+    return roles != null ? roles : DEFAULT_ROLES;
+  }
+
+  /**
+   * @return the roles of each field for the permission (get, post, put, delete or filter)
+   */
+  public Map<String, Set<String>> getFieldRoles(String permission) {
+    Map<String, Set<String>> roles = fieldRoles.get(permission.toLowerCase());
+    return roles != null ? roles : Collections.emptyMap();
+  }
+
+  /**
+   * @return the roles of the field for the permission or null when it isn't restricted
+   */
+  public Set<String> getFieldRoles(String field, String permission) {
+    return getFieldRoles(permission).get(field);
+  }
+
+  public List<CalcField> getCalcFields() {
+    return calcFields;
+  }
+
+  /**
+   * Value of a parameter of the query: a blockly, a constant or a value taken
+   * from the path of the request.
+   */
+  public static final class QueryParam {
+
+    private final JsonObject blockly;
+    private final String value;
+
+    private QueryParam(JsonElement fieldValue) {
+      JsonObject blocklyCall = null;
+      String constant = null;
+      if (fieldValue != null && fieldValue.isJsonObject()) {
+        blocklyCall = new JsonObject();
+        blocklyCall.add("blockly", fieldValue.getAsJsonObject());
+      } else if (fieldValue != null && fieldValue.isJsonPrimitive()) {
+        String text = fieldValue.getAsString().trim();
+        if (text.length() > 0 && !text.startsWith("{{") && !text.endsWith("}}")) {
+          constant = fieldValue.getAsString();
+        }
+      }
+      this.blockly = blocklyCall;
+      this.value = constant;
+    }
+
+    public boolean isBlockly() {
+      return blockly != null;
+    }
+
+    public boolean isConstant() {
+      return value != null;
+    }
+
+    /**
+     * @return the query that runs the blockly of the parameter
+     */
+    public JsonObject getBlockly() {
+      return blockly;
+    }
+
+    public String getValue() {
+      return value;
+    }
+  }
+
+  public static final class CalcField {
+
+    private final String name;
+    private final JsonElement value;
+    private final Set<String> roles;
+
+    private CalcField(String name, JsonElement value, Set<String> roles) {
+      this.name = name;
+      this.value = value;
+      this.roles = roles;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public JsonElement getValue() {
+      return value;
+    }
+
+    /**
+     * @return the roles allowed to read the field or null when it's public
+     */
+    public Set<String> getRoles() {
+      return roles;
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package cronapi;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Keeps the results of a blockly called through
+ * {@link cronapi.util.Operations#callBlockly(Var, Var...)}, by the values of
+ * its parameters. Only for functions that always return the same value for
+ * the same parameters. Calls with parameters other than text, numbers,
+ * booleans, characters and dates aren't memoized, nor results of other
+ * types, which the caller could change. When set on the class,
+ * applies to all of its methods.
+ */
+@Target(value = { ElementType.TYPE, ElementType.METHOD })
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CronapiMemoize {
+
+  /**
+   * Time in milliseconds a result is kept
+   */
+  long ttl() default 60000;
+
+  int maxSize() default 1000;
+
+  /**
+   * Keeps the results of each tenant apart
+   */
+  boolean perTenant() default true;
+}
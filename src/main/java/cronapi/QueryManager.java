@@ -3,97 +3,129 @@ package cronapi;
 import cronapi.database.DataSourceFilter.DataSourceFilterItem;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.gson.*;
 import cronapi.database.DataSourceFilter;
-import cronapi.database.JPQLConverter;
 import java.util.Map.Entry;
-import org.apache.commons.lang3.ArrayUtils;
-import org.springframework.security.core.GrantedAuthority;
 
+import cronapi.CompiledQuery.CalcField;
 import cronapi.database.DataSource;
+import cronapi.database.TransactionManager;
 import cronapi.i18n.Messages;
+import cronapi.rest.security.Authorization;
+import cronapi.util.BlocklyMetrics;
 import cronapi.util.Operations;
+import cronapi.util.ResourceUtil;
 
 import javax.json.Json;
 
 public class QueryManager {
 
-  private static JsonObject JSON;
+  private static final String RESOURCE = "META-INF/customQuery.json";
 
-  private static JsonArray DEFAULT_AUTHORITIES;
+  /**
+   * Request attribute counting the changes to the BeanPropertyFilter and
+   * NewBeanProperty attributes, so the serializers know when the properties
+   * already filtered for the request must be filtered again.
+   */
+  public static final String BEAN_PROPERTY_VERSION = "BeanPropertyVersion";
+
+  private static final int NAVIGATE_THREADS = Integer.getInteger("cronapi.navigate.threads", 4);
+
+  private static final ThreadPoolExecutor NAVIGATE_POOL;
 
   static {
-    JSON = loadJSON();
-    DEFAULT_AUTHORITIES = new JsonArray();
-    DEFAULT_AUTHORITIES.add("authenticated");
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory = runnable -> {
+      Thread thread = new Thread(runnable, "cronapi-navigate-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+    NAVIGATE_POOL = new ThreadPoolExecutor(NAVIGATE_THREADS, NAVIGATE_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(NAVIGATE_THREADS * 16), factory);
+    NAVIGATE_POOL.allowCoreThreadTimeOut(true);
   }
 
-  private static JsonObject loadJSON() {
+  private static volatile QueryIndex INDEX;
+
+  static {
+    INDEX = loadIndex();
+  }
+
+  private static QueryIndex loadIndex() {
     ClassLoader classLoader = QueryManager.class.getClassLoader();
-    try (InputStream stream = classLoader.getResourceAsStream("META-INF/customQuery.json")) {
+    URL url = classLoader.getResource(RESOURCE);
+    long lastModified = ResourceUtil.getLastModified(url);
+    try (InputStream stream = classLoader.getResourceAsStream(RESOURCE)) {
       InputStreamReader reader = new InputStreamReader(stream);
       JsonElement jsonElement = new JsonParser().parse(reader);
-      return jsonElement.getAsJsonObject();
+      return new QueryIndex(jsonElement.getAsJsonObject(), lastModified);
     } catch (Exception e) {
-      return new JsonObject();
+      return new QueryIndex(new JsonObject(), lastModified);
     }
   }
 
-  private static JsonObject getJSON() {
+  /**
+   * In debug mode the file is parsed again when it changes.
+   */
+  private static QueryIndex getIndex() {
+    QueryIndex index = INDEX;
     if (Operations.IS_DEBUG) {
-      return loadJSON();
-    } else {
-      return JSON;
+      long lastModified = ResourceUtil.getLastModified(QueryManager.class.getClassLoader().getResource(RESOURCE));
+      if (lastModified == 0 || lastModified != index.lastModified) {
+        index = loadIndex();
+        INDEX = index;
+      }
     }
+    return index;
   }
 
   public static JsonObject getQuery(String id) {
-    JsonObject obj = getJSON().getAsJsonObject(id);
+    JsonObject obj = getIndex().find(id);
     if (obj == null) {
-      for (Map.Entry<String, JsonElement> entry : getJSON().entrySet()) {
-        JsonObject customObj = entry.getValue().getAsJsonObject();
-        if (!isNull(customObj.get("customId")) && customObj.get("customId").getAsString()
-            .equalsIgnoreCase(id)) {
-          obj = customObj;
-          break;
-        }
-      }
-      if (obj == null) {
-        throw new RuntimeException(Messages.getString("queryNotFound"));
-      }
+      throw new RuntimeException(Messages.getString("queryNotFound"));
     }
 
     RestClient.getRestClient().setQuery(obj);
     return obj;
   }
 
+  /**
+   * Returns the compiled form of a query of customQuery.json, which is built
+   * once per query. Queries that aren't part of the file are compiled on each
+   * call.
+   */
+  public static CompiledQuery compile(JsonObject query) {
+    return getIndex().compile(query);
+  }
+
   public static String getJPQL(JsonObject query) {
-    if (!isNull(query.get("query"))) {
-      if (query.get("query").isJsonObject()) {
-        JsonObject queryObj = query.get("query").getAsJsonObject();
-        if (queryObj.get("isRawSql") != null && !queryObj.get("isRawSql").isJsonNull() && queryObj
-            .get("isRawSql").getAsBoolean()) {
-          return queryObj.get("sqlContent").getAsString();
-        } else {
-          return JPQLConverter.sqlFromJson(queryObj);
-        }
-      } else {
-        return query.get("query").getAsString();
-      }
-    }
-    return null;
+    return compile(query).getJpql();
   }
 
   public static String getType(JsonObject obj) {
-    if (obj.get("sourceType") != null && !obj.get("sourceType").isJsonNull()) {
-      return obj.get("sourceType").getAsString();
-    }
-
-    return "entityFullName";
+    return compile(obj).getType();
   }
 
   public static void checkSecurity(JsonObject obj, String verb) {
@@ -101,48 +133,13 @@ public class QueryManager {
   }
 
   public static void checkSecurity(JsonObject obj, String verb, boolean checkAuthorities) {
-    if (!obj.getAsJsonObject("verbs").get(verb).getAsBoolean()) {
+    CompiledQuery compiled = compile(obj);
+    if (!compiled.isVerbEnabled(verb)) {
       throw new RuntimeException(Messages.format(Messages.getString("verbNotAllowed"), verb));
     }
 
-    if (checkAuthorities) {
-      boolean authorized = false;
-
-      JsonElement auth = obj.getAsJsonObject("verbs").get(verb + "Authorities");
-      JsonArray authorities = null;
-      if (!isNull(auth) && auth.getAsJsonArray().size() > 0) {
-        authorities = auth.getAsJsonArray();
-      } else {
-        authorities = DEFAULT_AUTHORITIES;
-      }
-
-      for (JsonElement a : authorities) {
-        String role = a.getAsString();
-        if (role.equalsIgnoreCase("authenticated")) {
-          authorized = RestClient.getRestClient().getUser() != null;
-          if (authorized) {
-            break;
-          }
-        }
-        if (role.equalsIgnoreCase("permitAll") || role.equalsIgnoreCase("public")) {
-          authorized = true;
-          break;
-        }
-        for (GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-          if (role.equalsIgnoreCase(authority.getAuthority())) {
-            authorized = true;
-            break;
-          }
-        }
-
-        if (authorized) {
-          break;
-        }
-      }
-
-      if (!authorized) {
-        throw new RuntimeException(Messages.getString("notAllowed"));
-      }
+    if (checkAuthorities && !Authorization.isAuthorized(compiled.getVerbRoles(verb))) {
+      throw new RuntimeException(Messages.getString("notAllowed"));
     }
   }
 
@@ -190,10 +187,15 @@ public class QueryManager {
         Var name = Var
             .valueOf(event.get("blocklyClass").getAsString() + ":" + event.get("blocklyMethod")
                 .getAsString());
+        long start = BlocklyMetrics.start();
+        boolean error = true;
         try {
           Operations.callBlockly(name, Var.valueOf(ds));
+          error = false;
         } catch (Exception e) {
           throw new RuntimeException(e);
+        } finally {
+          BlocklyMetrics.record(eventName + " " + name.getObjectAsString(), start, error);
         }
       }
     }
@@ -207,10 +209,15 @@ public class QueryManager {
         Var name = Var
             .valueOf(event.get("blocklyClass").getAsString() + ":" + event.get("blocklyMethod")
                 .getAsString());
+        long start = BlocklyMetrics.start();
+        boolean error = true;
         try {
           Operations.callBlockly(name, params);
+          error = false;
         } catch (Exception e) {
           throw new RuntimeException(e);
+        } finally {
+          BlocklyMetrics.record(eventName + " " + name.getObjectAsString(), start, error);
         }
       }
     }
@@ -229,13 +236,22 @@ public class QueryManager {
 
         int current = ds.getCurrent();
         int size = ds.getPage().getContent().size();
-        for (int i = 0; i < size; i++) {
-          try {
-            Operations.callBlockly(name, dsVar);
-            ds.nextOnPage();
-          } catch (Exception e) {
-            throw new RuntimeException(e);
+        long start = BlocklyMetrics.start();
+        boolean error = true;
+        try {
+          if (!isNull(event.get("batch")) && event.get("batch").getAsBoolean()) {
+            executeNavigateBatch(event, name, ds.getPage().getContent());
+          } else {
+            for (int i = 0; i < size; i++) {
+              Operations.callBlockly(name, dsVar);
+              ds.nextOnPage();
+            }
           }
+          error = false;
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        } finally {
+          BlocklyMetrics.record("onNavigate " + name.getObjectAsString(), start, error);
         }
 
         ds.setCurrent(current);
@@ -243,6 +259,64 @@ public class QueryManager {
     }
   }
 
+  /**
+   * Calls the onNavigate event declared with <code>"batch": true</code> with
+   * the rows of the page as a list, in chunks of <code>chunkSize</code> rows
+   * (the whole page by default). When the event also declares
+   * <code>"parallel": true</code>, which means it has no side effects, the
+   * chunks are called at the same time, on the rows of the page themselves.
+   * The rows still belong to the EntityManager of the request, which isn't
+   * thread safe, so a parallel event may only change the fields of the rows
+   * of its own chunk and must not load their relations. Any other query runs
+   * on the EntityManager of the worker thread, which is closed when the
+   * chunk ends.
+   */
+  private static void executeNavigateBatch(JsonObject event, Var name, List<?> rows) throws Exception {
+    int chunkSize = rows.size();
+    if (!isNull(event.get("chunkSize")) && event.get("chunkSize").getAsInt() > 0) {
+      chunkSize = event.get("chunkSize").getAsInt();
+    }
+    boolean parallel = !isNull(event.get("parallel")) && event.get("parallel").getAsBoolean();
+
+    List<Future<?>> futures = new ArrayList<>();
+    try {
+      for (int from = 0; from < rows.size(); from += chunkSize) {
+        List<?> chunk = rows.subList(from, Math.min(from + chunkSize, rows.size()));
+        if (parallel && from > 0) {
+          List<Object> own = new ArrayList<>(chunk);
+          FutureTask<Var> task = new FutureTask<>(() -> {
+            try {
+              return Operations.callBlockly(name, Var.valueOf(own));
+            } finally {
+              TransactionManager.close();
+              TransactionManager.clear();
+            }
+          });
+          try {
+            NAVIGATE_POOL.execute(RestClient.getContextRunnable(task, false));
+            futures.add(task);
+          } catch (RejectedExecutionException e) {
+            Operations.callBlockly(name, Var.valueOf(new ArrayList<>(chunk)));
+          }
+        } else {
+          Operations.callBlockly(name, Var.valueOf(new ArrayList<>(chunk)));
+        }
+      }
+
+      for (Future<?> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+      }
+    } finally {
+      for (Future<?> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
   public static Var doExecuteBlockly(JsonObject blockly, String method, Var... params)
       throws Exception {
     String function = blockly.get("blocklyMethod").getAsString();
@@ -252,7 +326,15 @@ public class QueryManager {
     }
 
     Var name = Var.valueOf(blockly.get("blocklyClass").getAsString() + ":" + function);
-    return Operations.callBlockly(name, params);
+    long start = BlocklyMetrics.start();
+    boolean error = true;
+    try {
+      Var result = Operations.callBlockly(name, params);
+      error = false;
+      return result;
+    } finally {
+      BlocklyMetrics.record("blockly" + method + " " + name.getObjectAsString(), start, error);
+    }
   }
 
   public static Var executeBlockly(JsonObject query, String method, Var... vars) {
@@ -275,99 +357,38 @@ public class QueryManager {
       RestClient.getRestClient().getRequest().setAttribute("BeanPropertyFilter", ignores);
     }
 
-    ignores.add(field);
+    if (ignores.add(field)) {
+      beanPropertiesChanged();
+    }
+  }
+
+  private static void beanPropertiesChanged() {
+    Integer version = (Integer) RestClient.getRestClient().getRequest().getAttribute(BEAN_PROPERTY_VERSION);
+    RestClient.getRestClient().getRequest().setAttribute(BEAN_PROPERTY_VERSION, version != null ? version + 1 : 1);
   }
 
   public static void checkFieldSecurity(JsonObject query, Object ds, String method)
       throws Exception {
-    if (!isNull(query.get("security"))) {
-      JsonObject security = query.get("security").getAsJsonObject();
-
-      for (Entry<String, JsonElement> entry : security.entrySet()) {
-        if (!isNull(entry.getValue())) {
-          JsonObject permission = entry.getValue().getAsJsonObject();
-          if (!isNull(permission.get(method.toLowerCase()))) {
-            String[] roles = permission.get(method.toLowerCase()).getAsString().toLowerCase()
-                .split(";");
-
-            boolean authorized = false;
-
-            if (ArrayUtils.contains(roles, "public") || ArrayUtils.contains(roles, "permitAll")) {
-              authorized = true;
-            }
-
-            if (ArrayUtils.contains(roles, "authenticated")) {
-              authorized = RestClient.getRestClient().getUser() != null;
-              ;
-            }
-
-            if (!authorized) {
-              for (GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-                if (ArrayUtils.contains(roles, authority.getAuthority().toLowerCase())) {
-                  authorized = true;
-                  break;
-                }
-              }
-            }
-
-            if (!authorized && method.equalsIgnoreCase("GET")) {
-              addIgnoreField(((DataSource) ds).getDomainClass().getName() + "#" + entry.getKey());
-            }
-
-            if (!authorized && !method.equalsIgnoreCase("GET")) {
-              if (ds instanceof Var) {
-                ((Var) ds).getObjectAsMap().remove(entry.getKey());
-              } else {
-                ((RestBody) ds).getInputs()[0].getObjectAsMap().remove(entry.getKey());
-              }
-            }
-          }
+    for (Entry<String, Set<String>> entry : compile(query).getFieldRoles(method).entrySet()) {
+      if (!Authorization.isAuthorized(entry.getValue())) {
+        if (method.equalsIgnoreCase("GET")) {
+          addIgnoreField(((DataSource) ds).getDomainClass().getName() + "#" + entry.getKey());
+        } else if (ds instanceof Var) {
+          ((Var) ds).getObjectAsMap().remove(entry.getKey());
+        } else {
+          ((RestBody) ds).getInputs()[0].getObjectAsMap().remove(entry.getKey());
         }
       }
     }
   }
 
     public static void checkFilterSecurity (JsonObject query, DataSourceFilter filter){
-      if (!isNull(query.get("security")) && filter != null && filter.getItems().size() > 0) {
-        JsonObject security = query.get("security").getAsJsonObject();
-
+      if (filter != null && filter.getItems().size() > 0) {
+        Map<String, Set<String>> filterRoles = compile(query).getFieldRoles("filter");
         for (DataSourceFilterItem item : filter.getItems()) {
-          if (!isNull(security.get(item.key))) {
-            JsonObject permission = security.get(item.key).getAsJsonObject();
-            if (!isNull(permission.get("filter"))) {
-              String[] roles = permission.get("filter").getAsString().toLowerCase().split(";");
-              boolean authorized = false;
-              for (String role : roles) {
-                if (role.equalsIgnoreCase("public") || role.equalsIgnoreCase("permitAll")) {
-                  authorized = true;
-                  break;
-                }
-
-                if (role.equalsIgnoreCase("authenticated")) {
-                  authorized = RestClient.getRestClient().getUser() != null;
-                  if (authorized) {
-                    break;
-                  }
-                }
-
-                if (!authorized) {
-                  for (GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-                    if (authority.getAuthority().equalsIgnoreCase(role)) {
-                      authorized = true;
-                      break;
-                    }
-                  }
-                }
-
-                if (authorized) {
-                  break;
-                }
-              }
-
-              if (!authorized) {
-                throw new RuntimeException(Messages.getString("notAllowed"));
-              }
-            }
+          Set<String> roles = filterRoles.get(item.key);
+          if (roles != null && !Authorization.isAuthorized(roles)) {
+            throw new RuntimeException(Messages.getString("notAllowed"));
           }
         }
       }
@@ -378,71 +399,30 @@ public class QueryManager {
     }
 
     public static void addCalcFields (JsonObject query, Object ds,boolean post){
-      if (!isNull(query.get("calcFields")) && RestClient.getRestClient() != null
+      List<CalcField> calcFields = compile(query).getCalcFields();
+      if (!calcFields.isEmpty() && RestClient.getRestClient() != null
           && RestClient.getRestClient().getRequest() != null) {
-        for (Entry<String, JsonElement> entry : query.get("calcFields").getAsJsonObject()
-            .entrySet()) {
-          LinkedHashMap<String, JsonElement> newProperties = (LinkedHashMap<String, JsonElement>) RestClient
-              .getRestClient().getRequest()
-              .getAttribute("NewBeanProperty");
-          if (newProperties == null) {
-            newProperties = new LinkedHashMap<>();
-            RestClient.getRestClient().getRequest().setAttribute("NewBeanProperty", newProperties);
-          }
-
-          boolean authorized = true;
-
-          if (!isNull(query.get("calcFieldsSecurity"))) {
-            JsonObject obj = query.get("calcFieldsSecurity").getAsJsonObject();
-            if (!isNull(obj.get(entry.getKey())) && (!isNull(
-                obj.get(entry.getKey()).getAsJsonObject().get("get")))) {
-              String security = obj.get(entry.getKey()).getAsJsonObject().get("get").getAsString();
-              if (security == null) {
-                security = "public";
-              }
-              String[] roles = security.split(";");
-
-              authorized = false;
-              for (String role : roles) {
-                if (role.equalsIgnoreCase("public") || role.equalsIgnoreCase("permitAll")) {
-                  authorized = true;
-                  break;
-                }
-
-                if (role.equalsIgnoreCase("authenticated")) {
-                  authorized = RestClient.getRestClient().getUser() != null;
-                  if (authorized) {
-                    break;
-                  }
-                }
-
-                if (!authorized) {
-                  for (GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-                    if (authority.getAuthority().equalsIgnoreCase(role)) {
-                      authorized = true;
-                      break;
-                    }
-                  }
-                }
-
-                if (authorized) {
-                  break;
-                }
-              }
-            }
-          }
+        LinkedHashMap<String, JsonElement> newProperties = (LinkedHashMap<String, JsonElement>) RestClient
+            .getRestClient().getRequest()
+            .getAttribute("NewBeanProperty");
+        if (newProperties == null) {
+          newProperties = new LinkedHashMap<>();
+          RestClient.getRestClient().getRequest().setAttribute("NewBeanProperty", newProperties);
+        }
 
-          if (authorized) {
+        for (CalcField calcField : calcFields) {
+          if (calcField.getRoles() == null || Authorization.isAuthorized(calcField.getRoles())) {
             if (post) {
               if (ds instanceof DataSource) {
                 newProperties
-                    .put(((DataSource) ds).getEntity() + "." + entry.getKey(), entry.getValue());
+                    .put(((DataSource) ds).getEntity() + "." + calcField.getName(), calcField.getValue());
+                beanPropertiesChanged();
               }
             } else {
               try {
                 cronapi.json.Operations
-                    .setJsonOrMapField(Var.valueOf(ds), Var.valueOf(entry.getKey()),
-                        Var.valueOf(entry.getValue()));
+                    .setJsonOrMapField(Var.valueOf(ds), Var.valueOf(calcField.getName()),
+                        Var.valueOf(calcField.getValue()));
               } catch (Exception e) {
                 // Abafa
               }
@@ -452,27 +432,184 @@ public class QueryManager {
       }
     }
 
-    public static void checkMultiTenant(JsonObject query, DataSource ds){
-      if (!isNull(query.get("multiTenant")) && !query.get("multiTenant").getAsBoolean()) {
-        ds.disableMultiTenant();
+    /**
+     * Evaluates the calculated fields of the query for the rows of a page
+     * before they're serialized. A calculated field declared with
+     * <code>"batch": true</code> is called once with the list of rows and
+     * must return a list with the value of each row, in the same order. When
+     * the list has another size, every row gets an error as the value.
+     */
+    public static void evaluateCalcFields(JsonObject query, DataSource ds, List<?> rows) {
+      List<CalcField> calcFields = compile(query).getCalcFields();
+      if (calcFields.isEmpty() || rows.isEmpty() || RestClient.getRestClient() == null
+          || RestClient.getRestClient().getRequest() == null) {
+        return;
       }
 
-      if (!isNull(query.get("query"))) {
-        if (query.get("query").isJsonObject()) {
-          JsonObject obj = query.get("query").getAsJsonObject();
+      List<Object> beans = new ArrayList<>(rows.size());
+      for (Object row : rows) {
+        if (row != null && row.getClass().getCanonicalName().equals(ds.getEntity())) {
+          beans.add(row);
+        }
+      }
+      if (beans.isEmpty()) {
+        return;
+      }
+
+      Map<Object, Map<String, Var>> values = getCalcFieldValues();
+      String method = RestClient.getRestClient().getMethod();
+      for (CalcField calcField : calcFields) {
+        if (!calcField.getValue().isJsonObject()
+            || (calcField.getRoles() != null && !Authorization.isAuthorized(calcField.getRoles()))) {
+          continue;
+        }
 
-          if (!isNull(obj.get("multiTenant")) && !obj.get("multiTenant").getAsBoolean()) {
-            ds.disableMultiTenant();
+        JsonObject blockly = calcField.getValue().getAsJsonObject();
+        if (isBatch(blockly)) {
+          List<Var> results;
+          try {
+            results = doExecuteBlockly(blockly, method, Var.valueOf(beans)).getObjectAsList();
+          } catch (Exception e) {
+            results = null;
+            for (Object bean : beans) {
+              putCalcFieldValue(values, bean, calcField.getName(), Var.valueOf("ERROR: " + e.getMessage()));
+            }
+          }
+          if (results != null && results.size() != beans.size()) {
+            Var error = Var.valueOf("ERROR: " + Messages.format(Messages.getString("calcFieldBatchSize"),
+                calcField.getName(), results.size(), beans.size()));
+            for (Object bean : beans) {
+              putCalcFieldValue(values, bean, calcField.getName(), error);
+            }
+          } else if (results != null) {
+            Iterator<Var> iterator = results.iterator();
+            for (Object bean : beans) {
+              putCalcFieldValue(values, bean, calcField.getName(), iterator.next());
+            }
           }
         } else {
-          String jpql = query.get("query").getAsString();
-          boolean containsNoTenant = jpql.contains("/*notenant*/");
-          if (containsNoTenant) {
-            ds.disableMultiTenant();
-            jpql = jpql.replace("/*notenant*/", "");
-            query.addProperty("query", jpql);
+          for (Object bean : beans) {
+            putCalcFieldValue(values, bean, calcField.getName(),
+                executeCalcField(blockly, calcField.getName(), method, bean));
           }
         }
       }
     }
+
+    /**
+     * @return the value of the calculated field for the bean, evaluated before
+     *         the serialization or now, when it wasn't
+     */
+    public static Var getCalcFieldValue(JsonElement definition, String field, Object bean) {
+      if (definition.isJsonPrimitive()) {
+        return Var.valueOf(definition);
+      }
+
+      Map<Object, Map<String, Var>> values = getCalcFieldValues();
+      Map<String, Var> fields = values.get(bean);
+      Var value = fields != null ? fields.get(field) : null;
+      if (value == null) {
+        value = executeCalcField(definition.getAsJsonObject(), field, RestClient.getRestClient().getMethod(), bean);
+        putCalcFieldValue(values, bean, field, value);
+      }
+      return value;
+    }
+
+    /**
+     * Calls the calculated field for a single bean. A batch field is called
+     * with a list holding only the bean and its first value is returned.
+     */
+    private static Var executeCalcField(JsonObject blockly, String field, String method, Object bean) {
+      try {
+        if (isBatch(blockly)) {
+          List<Var> results = doExecuteBlockly(blockly, method, Var.valueOf(Collections.singletonList(bean)))
+              .getObjectAsList();
+          if (results.size() != 1) {
+            return Var.valueOf("ERROR: " + Messages.format(Messages.getString("calcFieldBatchSize"),
+                field, results.size(), 1));
+          }
+          return results.get(0);
+        }
+        return doExecuteBlockly(blockly, method, Var.valueOf(bean));
+      } catch (Exception e) {
+        return Var.valueOf("ERROR: " + e.getMessage());
+      }
+    }
+
+    private static boolean isBatch(JsonObject blockly) {
+      return !isNull(blockly.get("batch")) && blockly.get("batch").getAsBoolean();
+    }
+
+    /**
+     * Values of the calculated fields of the request, by bean identity
+     */
+    private static Map<Object, Map<String, Var>> getCalcFieldValues() {
+      Map<Object, Map<String, Var>> values = (Map<Object, Map<String, Var>>) RestClient.getRestClient()
+          .getRequest().getAttribute("CalcFieldValues");
+      if (values == null) {
+        values = new IdentityHashMap<>();
+        RestClient.getRestClient().getRequest().setAttribute("CalcFieldValues", values);
+      }
+      return values;
+    }
+
+    private static void putCalcFieldValue(Map<Object, Map<String, Var>> values, Object bean, String field, Var value) {
+      values.computeIfAbsent(bean, k -> new HashMap<>()).put(field, value);
+    }
+
+    public static void checkMultiTenant(JsonObject query, DataSource ds){
+      if (!compile(query).isMultiTenant()) {
+        ds.disableMultiTenant();
+      }
+    }
+  
+  /**
+   * Queries of customQuery.json indexed by id and by lower-cased customId.
+   */
+  private static class QueryIndex {
+
+    private final long lastModified;
+    private final Map<String, JsonObject> byId;
+    private final Map<String, JsonObject> byCustomId;
+    private final Map<JsonObject, String> idOf;
+    private final Map<String, CompiledQuery> compiled = new ConcurrentHashMap<>();
+
+    private QueryIndex(JsonObject json, long lastModified) {
+      this.lastModified = lastModified;
+
+      Map<String, JsonObject> ids = new HashMap<>();
+      Map<String, JsonObject> customIds = new HashMap<>();
+      Map<JsonObject, String> queries = new IdentityHashMap<>();
+      for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+        if (entry.getValue().isJsonObject()) {
+          JsonObject query = entry.getValue().getAsJsonObject();
+          ids.put(entry.getKey(), query);
+          queries.put(query, entry.getKey());
+          if (!isNull(query.get("customId"))) {
+            customIds.putIfAbsent(query.get("customId").getAsString().toLowerCase(), query);
+          }
+        }
+      }
+
+      this.byId = Collections.unmodifiableMap(ids);
+      this.byCustomId = Collections.unmodifiableMap(customIds);
+      this.idOf = Collections.unmodifiableMap(queries);
+    }
+
+    private CompiledQuery compile(JsonObject query) {
+      String id = idOf.get(query);
+      if (id == null) {
+        return new CompiledQuery(query);
+      }
+      return compiled.computeIfAbsent(id, k -> new CompiledQuery(query));
+    }
+
+    private JsonObject find(String id) {
+      JsonObject query = byId.get(id);
+      if (query == null && id != null) {
+        query = byCustomId.get(id.toLowerCase());
+      }
+      return query;
+    }
   }
+}
@@ -32,6 +32,8 @@ public class RestClient {
 	private JsonObject query = null;
 	private boolean filteredEnabled = false;
 	private Locale locale;
+	private Set<String> authoritySet;
+	private User authorityUser;
 
 	private static List<GrantedAuthority> DEFAULT_AUTHORITIES;
 
@@ -231,6 +233,22 @@ public class RestClient {
 		return Collections.EMPTY_LIST;
 	}
 
+	/**
+	 * @return the lower-cased authorities of the user, computed once per request
+	 */
+	public Set<String> getAuthoritySet() {
+		User current = getUser();
+		if (authoritySet == null || authorityUser != current) {
+			Set<String> authorities = new HashSet<>();
+			for (GrantedAuthority authority : getAuthorities()) {
+				authorities.add(authority.getAuthority().toLowerCase());
+			}
+			authoritySet = Collections.unmodifiableSet(authorities);
+			authorityUser = current;
+		}
+		return authoritySet;
+	}
+
 	public boolean isFilteredEnabled() {
 		return filteredEnabled;
 	}
@@ -1,91 +1,92 @@
 package cronapi;
 
-import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.util.ReflectionUtils;
 
 import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
 import com.fasterxml.jackson.databind.ser.PropertyWriter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
 
+import cronapi.rest.security.Authorization;
 import cronapi.rest.security.CronappSecurity;
 
 public class SecurityBeanFilter extends SimpleBeanPropertyFilter {
 
+  private static final Map<String, Set<String>> UNRESTRICTED = Collections.emptyMap();
+
+  /**
+   * Roles of each verb for the properties of a class, read from the
+   * {@link CronappSecurity} annotation of the field once per property.
+   */
+  private static final ClassValue<Map<String, Map<String, Set<String>>>> PLANS = new ClassValue<Map<String, Map<String, Set<String>>>>() {
+    @Override
+    protected Map<String, Map<String, Set<String>>> computeValue(Class<?> type) {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  private static Map<String, Set<String>> getPlan(Class clazz, String key) {
+    Map<String, Map<String, Set<String>>> plans = PLANS.get(clazz);
+    Map<String, Set<String>> plan = plans.get(key);
+    if(plan == null) {
+      plan = createPlan(clazz, key);
+      plans.put(key, plan);
+    }
+    return plan;
+  }
+
+  private static Map<String, Set<String>> createPlan(Class clazz, String key) {
+    Field field = ReflectionUtils.findField(clazz, key);
+    CronappSecurity security = field != null ? field.getAnnotation(CronappSecurity.class) : null;
+    if(security == null) {
+      return UNRESTRICTED;
+    }
+
+    Map<String, Set<String>> plan = new HashMap<>();
+    addRoles(plan, "get", security.get());
+    addRoles(plan, "post", security.post());
+    addRoles(plan, "put", security.put());
+    addRoles(plan, "delete", security.delete());
+    addRoles(plan, "filter", security.filter());
+    addRoles(plan, "execute", security.execute());
+    return plan.isEmpty() ? UNRESTRICTED : Collections.unmodifiableMap(plan);
+  }
+
+  private static void addRoles(Map<String, Set<String>> plan, String verb, String value) {
+    if(value != null && !value.isEmpty()) {
+      plan.put(verb, Authorization.parseRoles(value));
+    }
+  }
+
+  /**
+   * @return true when the property of the class may be used by the current
+   *         user with the verb (the verb of the request when null)
+   */
   public static boolean includeProperty(Class clazzToCheck, String key, String method) {
     RestClient client = RestClient.getRestClient();
-    if(client.getRequest() != null) {
-      HttpServletRequest request = RestClient.getRestClient().getRequest();
-      if(clazzToCheck != null) {
-        if(request != null) {
-          if(request.getAttribute("BeanPropertyFilter") != null) {
-            HashSet<String> ignores = (HashSet<String>)request.getAttribute("BeanPropertyFilter");
-            String name = clazzToCheck.getName() + "#" + key;
-            if(ignores.contains(name))
-              return false;
-          }
-        }
-        
-        Class clazz = clazzToCheck;
-        if(clazz != null) {
-          Field field = ReflectionUtils.findField(clazz, key);
-          if(field != null) {
-            Annotation security = field.getAnnotation(CronappSecurity.class);
-            
-            if(security instanceof CronappSecurity) {
-              CronappSecurity cronappSecurity = (CronappSecurity)security;
-              try {
-                Method methodPermission = cronappSecurity.getClass().getMethod(method==null?client.getMethod().toLowerCase():method.toLowerCase());
-                
-                if(methodPermission != null) {
-                  String value = (String)methodPermission.invoke(cronappSecurity);
-                  
-                  if(value != null && !value.isEmpty()) {
-                    boolean authorized = false;
-                    
-                    String[] authorities = value.trim().split(";");
-                    
-                    for(String role : authorities) {
-                      if(role.equalsIgnoreCase("authenticated")) {
-                        authorized = RestClient.getRestClient().getUser() != null;
-                        if(authorized)
-                          break;
-                      }
-                      if(role.equalsIgnoreCase("permitAll") || role.equalsIgnoreCase("public")) {
-                        authorized = true;
-                        break;
-                      }
-                      for(GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-                        if(role.equalsIgnoreCase(authority.getAuthority())) {
-                          authorized = true;
-                          break;
-                        }
-                      }
-                      
-                      if(authorized)
-                        break;
-                    }
-                    
-                    if(!authorized) {
-                      return false;
-                    }
-                  }
-                }
-                
-              }
-              catch(Exception e) {
-                //
-              }
-            }
-          }
+    HttpServletRequest request = client.getRequest();
+    if(request != null && clazzToCheck != null) {
+      HashSet<String> ignores = (HashSet<String>)request.getAttribute("BeanPropertyFilter");
+      if(ignores != null && ignores.contains(clazzToCheck.getName() + "#" + key)) {
+        return false;
+      }
+
+      Map<String, Set<String>> plan = getPlan(clazzToCheck, key);
+      if(plan != UNRESTRICTED) {
+        String verb = method != null ? method : client.getMethod();
+        Set<String> roles = verb != null ? plan.get(verb.toLowerCase()) : null;
+        if(roles != null && !Authorization.isAuthorized(roles)) {
+          return false;
         }
-        
       }
     }
     return true;
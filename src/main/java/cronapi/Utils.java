@@ -747,21 +747,14 @@ public class Utils {
 	  int paramBlockly = 0;
 	  int paramTranslationPath = 0;
     List<Var> params = new LinkedList<Var>();
-    JsonArray array = query.get("queryParamsValues").getAsJsonArray();
-    for (int i = 0; i < array.size(); i++ ) {
-      JsonObject paramObj = array.get(i).getAsJsonObject();
-      if (paramObj.get("fieldValue").isJsonObject()) {
-        JsonObject jsonCallBlockly = new JsonObject();
-        jsonCallBlockly.add("blockly", paramObj.get("fieldValue").getAsJsonObject());
-        Var result = QueryManager.executeBlockly(jsonCallBlockly, "GET", null).getObjectAsPOJOList();
+    for (CompiledQuery.QueryParam param : QueryManager.compile(query).getParams()) {
+      if (param.isBlockly()) {
+        Var result = QueryManager.executeBlockly(param.getBlockly(), "GET", null).getObjectAsPOJOList();
         params.add(result.getObjectAsList().getFirst().getField("value"));
         paramBlockly++;
       }
-      else if (paramObj.get("fieldValue").isJsonPrimitive() 
-           && paramObj.get("fieldValue").getAsString().trim().length()  > 0
-           && !paramObj.get("fieldValue").getAsString().trim().startsWith("{{")
-           && !paramObj.get("fieldValue").getAsString().trim().endsWith("}}")) {
-        params.add(Var.valueOf(paramObj.get("fieldValue").getAsString()));
+      else if (param.isConstant()) {
+        params.add(Var.valueOf(param.getValue()));
         paramBlockly++;
       }
       else {
@@ -2,18 +2,131 @@ package cronapi.clazz;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.Hashtable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 
 import cronapi.util.Operations;
 
+/**
+ * Loads the classes of the project from disk, so the changes made while
+ * debugging are used without restarting. The directories of the loaded
+ * classes are watched and the loader returned by {@link #getInstance()} is
+ * replaced by a new generation only when a class file changes.
+ */
 public class CronapiClassLoader extends ClassLoader {
   
+  static {
+    // findClass locks by class name through getClassLoadingLock
+    registerAsParallelCapable();
+  }
+  
+  private static final AtomicLong GENERATION = new AtomicLong();
+  
+  private static final Set<Path> WATCHED = ConcurrentHashMap.newKeySet();
+  
+  private static volatile CronapiClassLoader current;
+  
+  private static WatchService watchService;
+  
+  private static volatile boolean watchFailed;
+  
+  private final long generation;
+  
   private Hashtable<String, Class<?>> classes = new Hashtable<>();
   
   public CronapiClassLoader() {
     super(CronapiClassLoader.class.getClassLoader()); // calls the parent class loader's constructor
+    this.generation = GENERATION.get();
+  }
+  
+  /**
+   * @return the loader of the current generation. When the directories can't
+   *         be watched, a new loader is returned on each call.
+   */
+  public static CronapiClassLoader getInstance() {
+    if(watchFailed)
+      return new CronapiClassLoader();
+    
+    CronapiClassLoader loader = current;
+    if(loader == null || loader.generation != GENERATION.get()) {
+      synchronized(CronapiClassLoader.class) {
+        loader = current;
+        if(loader == null || loader.generation != GENERATION.get()) {
+          loader = new CronapiClassLoader();
+          current = loader;
+        }
+      }
+    }
+    return loader;
+  }
+  
+  /**
+   * @return the current generation, which changes each time a class file changes
+   */
+  public static long getGeneration() {
+    return GENERATION.get();
+  }
+  
+  /**
+   * @return false when the changes can't be detected and the classes are read
+   *         from disk on each call
+   */
+  public static boolean isWatching() {
+    return !watchFailed;
+  }
+  
+  private static void watch(File directory) {
+    Path path = directory.toPath();
+    if(watchFailed || !WATCHED.add(path))
+      return;
+    
+    try {
+      synchronized(CronapiClassLoader.class) {
+        if(watchService == null) {
+          watchService = path.getFileSystem().newWatchService();
+          Thread thread = new Thread(CronapiClassLoader::watchChanges, "CronapiClassWatcher");
+          thread.setDaemon(true);
+          thread.start();
+        }
+      }
+      path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+          StandardWatchEventKinds.ENTRY_DELETE);
+    }
+    catch(IOException | RuntimeException e) {
+      watchFailed = true;
+    }
+  }
+  
+  private static void watchChanges() {
+    while(true) {
+      WatchKey key;
+      try {
+        key = watchService.take();
+      }
+      catch(InterruptedException e) {
+        return;
+      }
+      
+      for(WatchEvent<?> event : key.pollEvents()) {
+        if(event.kind() == StandardWatchEventKinds.OVERFLOW || String.valueOf(event.context()).endsWith(".class")) {
+          GENERATION.incrementAndGet();
+        }
+      }
+      
+      if(!key.reset()) {
+        WATCHED.remove(key.watchable());
+      }
+    }
   }
   
   @Override
@@ -23,6 +136,12 @@ public class CronapiClassLoader extends ClassLoader {
   
   @Override
   public Class<?> findClass(String className) throws ClassNotFoundException {
+    synchronized(getClassLoadingLock(className)) {
+      return findClassFromDisk(className);
+    }
+  }
+  
+  private Class<?> findClassFromDisk(String className) throws ClassNotFoundException {
     Class<?> clazz = classes.get(className);
     
     if(clazz != null)
@@ -39,6 +158,8 @@ public class CronapiClassLoader extends ClassLoader {
           return Class.forName(className);
         }
         
+        watch(classFile.getParentFile());
+        
         try (FileInputStream fi = new FileInputStream(classFile)) {
           classData = IOUtils.toByteArray(fi);
           clazz = defineClass(className, classData, 0, classData.length);
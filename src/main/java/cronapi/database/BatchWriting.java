@@ -0,0 +1,67 @@
+package cronapi.database;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.eclipse.persistence.internal.databaseaccess.Accessor;
+import org.eclipse.persistence.internal.databaseaccess.DatabaseAccessor;
+import org.eclipse.persistence.internal.databaseaccess.DatabasePlatform;
+import org.eclipse.persistence.internal.databaseaccess.DatasourcePlatform;
+import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
+import org.eclipse.persistence.internal.sessions.UnitOfWorkImpl;
+
+/**
+ * Enables EclipseLink JDBC batch writing and parameter binding on the
+ * connection of a single transaction. The platform shared by the factory is
+ * never changed: the write accessor of the transaction gets a copy of it with
+ * batching enabled, and the original platform is put back once the bulk
+ * operation ends, before the connection can return to the pool.
+ */
+class BatchWriting {
+
+  static final int FLUSH_INTERVAL = Integer.getInteger("cronapi.batch.flushInterval", 500);
+
+  private final Map<DatabaseAccessor, DatasourcePlatform> platforms = new IdentityHashMap<>();
+
+  private BatchWriting() {
+  }
+
+  /**
+   * Starts the database transaction of the EntityManager, which must have an
+   * active transaction, and enables batch writing on its connection.
+   */
+  static BatchWriting enable(EntityManager em) {
+    UnitOfWorkImpl unitOfWork = (UnitOfWorkImpl)((EntityManagerImpl)em.getDelegate()).getUnitOfWork();
+    unitOfWork.beginEarlyTransaction();
+
+    BatchWriting batchWriting = new BatchWriting();
+    for(Accessor accessor : unitOfWork.getParent().getAccessors()) {
+      if(accessor instanceof DatabaseAccessor) {
+        DatabaseAccessor databaseAccessor = (DatabaseAccessor)accessor;
+        DatasourcePlatform original = databaseAccessor.getDatasourcePlatform();
+
+        DatabasePlatform platform = (DatabasePlatform)original.clone();
+        platform.setUsesBatchWriting(true);
+        platform.setUsesJDBCBatchWriting(true);
+        platform.setShouldBindAllParameters(true);
+
+        batchWriting.platforms.put(databaseAccessor, original);
+        databaseAccessor.setDatasourcePlatform(platform);
+      }
+    }
+    return batchWriting;
+  }
+
+  /**
+   * Restores the platform of the connections. The pending statements must
+   * have already been written by a flush.
+   */
+  void disable() {
+    for(Map.Entry<DatabaseAccessor, DatasourcePlatform> entry : platforms.entrySet()) {
+      entry.getKey().setDatasourcePlatform(entry.getValue());
+    }
+    platforms.clear();
+  }
+}
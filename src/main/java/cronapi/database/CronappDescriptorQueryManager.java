@@ -1,9 +1,20 @@
 package cronapi.database;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.EntityType;
+
+import org.eclipse.persistence.descriptors.ClassDescriptor;
 import org.eclipse.persistence.descriptors.DescriptorQueryManager;
+import org.eclipse.persistence.internal.jpa.metamodel.EntityTypeImpl;
 
 import javassist.util.proxy.MethodHandler;
 import javassist.util.proxy.ProxyFactory;
@@ -12,6 +23,11 @@ import javassist.util.proxy.ProxyObject;
 public class CronappDescriptorQueryManager {
   
   private static ThreadLocal<Boolean> DISABLED = new ThreadLocal<>();
+
+  // Factories already instrumented, held weakly and compared by identity
+  private static final Set<FactoryKey> INSTRUMENTED = ConcurrentHashMap.newKeySet();
+
+  private static final ReferenceQueue<EntityManagerFactory> COLLECTED = new ReferenceQueue<>();
   
   public static boolean isDisabled() {
     return DISABLED.get() != null && DISABLED.get();
@@ -25,6 +41,73 @@ public class CronappDescriptorQueryManager {
     DISABLED.remove();
   }
   
+  /**
+   * Wraps the query manager and multitenant policy of every descriptor managed by
+   * the factory of the given EntityManager, so the multitenant criteria can be
+   * toggled per thread. Each factory is instrumented only once.
+   */
+  public static void instrument(EntityManager em) {
+    EntityManagerFactory factory = em.getEntityManagerFactory();
+    FactoryKey key = new FactoryKey(factory, null);
+    if(INSTRUMENTED.contains(key))
+      return;
+
+    synchronized(INSTRUMENTED) {
+      if(INSTRUMENTED.contains(key))
+        return;
+
+      Reference<? extends EntityManagerFactory> collected;
+      while((collected = COLLECTED.poll()) != null) {
+        INSTRUMENTED.remove(collected);
+      }
+
+      try {
+        for(EntityType type : em.getMetamodel().getEntities()) {
+          ClassDescriptor desc = ((EntityTypeImpl)type).getDescriptor();
+          DescriptorQueryManager old = desc.getQueryManager();
+
+          if(desc.getMultitenantPolicy() != null && !(desc.getMultitenantPolicy() instanceof CronappMultitenantPolicy)) {
+            desc.setMultitenantPolicy(new CronappMultitenantPolicy(desc.getMultitenantPolicy()));
+          }
+
+          if(needProxy(old)) {
+            desc.setQueryManager(build(old));
+          }
+        }
+      }
+      catch(Exception e) {
+        throw new RuntimeException(e);
+      }
+
+      INSTRUMENTED.add(new FactoryKey(factory, COLLECTED));
+    }
+  }
+
+  private static final class FactoryKey extends WeakReference<EntityManagerFactory> {
+
+    private final int hash;
+
+    private FactoryKey(EntityManagerFactory factory, ReferenceQueue<EntityManagerFactory> queue) {
+      super(factory, queue);
+      this.hash = System.identityHashCode(factory);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj)
+        return true;
+      if(!(obj instanceof FactoryKey))
+        return false;
+      Object factory = get();
+      return factory != null && factory == ((FactoryKey)obj).get();
+    }
+  }
+
   public static boolean needProxy(Object obj) {
     if(obj == null)
       return false;
@@ -3,12 +3,16 @@ package cronapi.database;
 import java.lang.reflect.Method;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
 
 import javax.persistence.EntityManager;
+import javax.persistence.Parameter;
 import javax.persistence.TypedQuery;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.SingularAttribute;
@@ -16,18 +20,14 @@ import javax.persistence.metamodel.Type;
 
 import cronapi.json.Operations;
 import org.eclipse.persistence.annotations.Multitenant;
-import org.eclipse.persistence.descriptors.ClassDescriptor;
-import org.eclipse.persistence.descriptors.DescriptorQueryManager;
 import org.eclipse.persistence.internal.jpa.EJBQueryImpl;
 import org.eclipse.persistence.internal.jpa.EntityManagerImpl;
-import org.eclipse.persistence.internal.jpa.metamodel.EntityTypeImpl;
 import org.eclipse.persistence.internal.sessions.AbstractSession;
 import org.eclipse.persistence.queries.DatabaseQuery;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.security.core.GrantedAuthority;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonSerializable;
@@ -38,7 +38,9 @@ import com.google.gson.JsonObject;
 import cronapi.*;
 import cronapi.cloud.CloudFactory;
 import cronapi.cloud.CloudManager;
+import cronapi.database.QueryCounter.CountMode;
 import cronapi.i18n.Messages;
+import cronapi.rest.security.Authorization;
 import cronapi.rest.security.CronappSecurity;
 import java.util.LinkedHashSet;
 import java.util.Set;
@@ -69,6 +71,10 @@ public class DataSource implements JsonSerializable {
   private EntityManager customEntityManager;
   private DataSourceFilter dsFilter;
   private boolean multiTenant = true;
+  private CountMode countMode = CountMode.NONE;
+  private boolean totalEstimated = false;
+  private String cursor;
+  private String nextCursor;
   
   /**
    * Init a datasource with a page size equals 100
@@ -124,7 +130,7 @@ public class DataSource implements JsonSerializable {
     else
       em = TransactionManager.getEntityManager(domainClass);
 
-    enableTenantToogle(em);
+    CronappDescriptorQueryManager.instrument(em);
 
     return em;
   }
@@ -191,28 +197,6 @@ public class DataSource implements JsonSerializable {
     return tokens;
   }
 
-  private void enableTenantToogle(EntityManager em) {
-    try {
-      for(EntityType type : em.getMetamodel().getEntities()) {
-        DescriptorQueryManager old = ((EntityTypeImpl)type).getDescriptor().getQueryManager();
-
-        ClassDescriptor desc = ((EntityTypeImpl)type).getDescriptor();
-
-        if (desc.getMultitenantPolicy() != null && !(desc.getMultitenantPolicy() instanceof CronappMultitenantPolicy)) {
-          desc.setMultitenantPolicy(new CronappMultitenantPolicy(desc.getMultitenantPolicy()));
-        }
-
-        if(CronappDescriptorQueryManager.needProxy(old)) {
-          desc.setQueryManager(CronappDescriptorQueryManager.build(old));
-        }
-
-
-      }
-    } catch(Exception e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private void startMultitenant(EntityManager em) {
     if (!multiTenant) {
       CronappDescriptorQueryManager.disableMultitenant();
@@ -259,41 +243,45 @@ public class DataSource implements JsonSerializable {
 
       startMultitenant(em);
 
+      String baseJpql = jpql;
+      KeysetPage keyset = null;
+      this.nextCursor = null;
+      if (this.cursor != null && this.pageRequest != null) {
+        keyset = KeysetPage.prepare(jpql, simpleEntity, getKeyNames(), this.cursor);
+        if (keyset != null)
+          jpql = keyset.getJpql();
+      }
+
       AbstractSession session = (AbstractSession)((EntityManagerImpl) em.getDelegate()).getActiveSession();
-      DatabaseQuery dbQuery = EJBQueryImpl.buildEJBQLDatabaseQuery("customQuery", jpql, session, (Enum)null, (Map)null, session.getDatasourcePlatform().getConversionManager().getLoader());
+      DatabaseQuery dbQuery = JPQLQueryCache.getQuery(em.getEntityManagerFactory(), session, jpql, multiTenant);
 
       TypedQuery<?> query = new EJBQueryImpl(dbQuery, (EntityManagerImpl) em.getDelegate());
 
-      int i = 0;
-      List<String> parsedParams = parseParams(jpql);
-      
-      for(String param : parsedParams) {
-        Var p = null;
-        if(i <= params.length - 1) {
-          p = params[i];
-        }
-        if(p != null) {
-          if(p.getId() != null) {
-            query.setParameter(p.getId(), p.getObject(query.getParameter(p.getId()).getParameterType()));
-          }
-          else {
-            query.setParameter(param, p.getObject(query.getParameter(parsedParams.get(i)).getParameterType()));
-          }
-        }
-        else {
-          query.setParameter(param, null);
-        }
-        i++;
-      }
+      bindParams(query, jpql, params);
 
-      if (this.pageRequest != null) {
+      if (keyset != null) {
+        keyset.bind(query);
+        query.setMaxResults(this.pageRequest.getPageSize());
+      }
+      else if (this.pageRequest != null) {
         query.setFirstResult(this.pageRequest.getPageNumber() * this.pageRequest.getPageSize());
         query.setMaxResults(this.pageRequest.getPageSize());
       }
       
       List<?> resultsInPage = query.getResultList();
+
+      if (keyset != null && resultsInPage.size() == this.pageRequest.getPageSize() && !resultsInPage.isEmpty()) {
+        this.nextCursor = keyset.nextCursor(resultsInPage.get(resultsInPage.size() - 1));
+      }
+
+      long total = 0;
+      this.totalEstimated = false;
+      if (this.countMode != CountMode.NONE && this.pageRequest != null) {
+        boolean offsetKnown = keyset == null || this.cursor.trim().isEmpty();
+        total = count(em, session, baseJpql, query, resultsInPage.size(), offsetKnown);
+      }
       
-      this.page = new PageImpl(resultsInPage, this.pageRequest, 0);
+      this.page = new PageImpl(resultsInPage, this.pageRequest, total);
     }
     catch(Exception ex) {
       throw new RuntimeException(ex);
@@ -309,8 +297,209 @@ public class DataSource implements JsonSerializable {
     return this.page.getContent().toArray();
   }
   
+  private void bindParams(TypedQuery<?> query, String jpql, Var[] params) {
+    int i = 0;
+    List<String> parsedParams = parseParams(jpql);
+
+    for(String param : parsedParams) {
+      Var p = null;
+      if(i <= params.length - 1) {
+        p = params[i];
+      }
+      if(p != null) {
+        if(p.getId() != null) {
+          query.setParameter(p.getId(), p.getObject(query.getParameter(p.getId()).getParameterType()));
+        }
+        else {
+          query.setParameter(param, p.getObject(query.getParameter(parsedParams.get(i)).getParameterType()));
+        }
+      }
+      else {
+        query.setParameter(param, null);
+      }
+      i++;
+    }
+  }
+
+  /**
+   * Opens a forward only cursor over the instruction, reading the rows from
+   * the database in blocks of the given fetch size instead of loading them in a
+   * page. The persistence context is flushed and cleared every
+   * clearInterval rows, so the memory used stays flat for any number of rows.
+   * The cursor must be closed after use.
+   *
+   * @param filter
+   *          - jpql instruction, or null to read all the entities
+   * @param fetchSize
+   *          - number of rows read from the database in each round trip
+   * @param clearInterval
+   *          - number of rows read between each clear of the persistence context
+   * @param params
+   *          - parameters of the instruction
+   */
+  public QueryCursor stream(String filter, int fetchSize, int clearInterval, Var ... params) {
+    String jpql = filter;
+    if(jpql == null) {
+      jpql = "select e from " + simpleEntity + " e";
+    }
+
+    if (jpql.contains("/*notenant*/")) {
+      multiTenant = false;
+    }
+    jpql = jpql.replace("/*notenant*/", "");
+
+    if(dsFilter != null) {
+      dsFilter.applyTo(domainClass, jpql, params);
+      params = dsFilter.getAppliedParams();
+      jpql = dsFilter.getAppliedJpql();
+    }
+
+    try {
+      EntityManager em = getEntityManager(domainClass);
+
+      startMultitenant(em);
+
+      AbstractSession session = (AbstractSession)((EntityManagerImpl) em.getDelegate()).getActiveSession();
+      DatabaseQuery dbQuery = JPQLQueryCache.getQuery(em.getEntityManagerFactory(), session, jpql, multiTenant);
+
+      TypedQuery<?> query = new EJBQueryImpl(dbQuery, (EntityManagerImpl) em.getDelegate());
+      bindParams(query, jpql, params);
+
+      return QueryCursor.open(em, query, fetchSize, clearInterval);
+    }
+    catch(Exception ex) {
+      throw new RuntimeException(ex);
+    }
+    finally {
+      enableMultiTenant();
+    }
+  }
+
+  public QueryCursor stream(String filter, Var ... params) {
+    return stream(filter, QueryCursor.FETCH_SIZE, QueryCursor.CLEAR_INTERVAL, params);
+  }
+
+  private long count(EntityManager em, AbstractSession session, String jpql, TypedQuery<?> query, int fetched,
+                     boolean offsetKnown) {
+    int offset = offsetKnown ? this.pageRequest.getPageNumber() * this.pageRequest.getPageSize() : 0;
+    if (offsetKnown && fetched < this.pageRequest.getPageSize() && (fetched > 0 || offset == 0)) {
+      // Last page reached, the total is already known
+      return offset + fetched;
+    }
+
+    String countJpql = null;
+    CountMode mode = this.countMode;
+    if (mode == CountMode.ESTIMATED)
+      countJpql = QueryCounter.toEstimateJpql(jpql, getSingleKeyName());
+    if (countJpql == null) {
+      // Composite keys and projections are counted exactly, instead of reading whole rows
+      mode = CountMode.EXACT;
+      countJpql = QueryCounter.toCountJpql(jpql);
+    }
+
+    if (countJpql == null)
+      return 0;
+
+    Map<String, Object> values = new HashMap<>();
+    for (Parameter<?> parameter : query.getParameters()) {
+      if (query.isBound(parameter) && !KeysetPage.isKeysetParameter(parameter.getName())) {
+        values.put(parameterName(parameter), query.getParameterValue(parameter));
+      }
+    }
+
+    String key = QueryCounter.key(mode + ":" + countJpql, values, multiTenant);
+    Long total = QueryCounter.getCached(key);
+    if (total == null) {
+      DatabaseQuery dbQuery = JPQLQueryCache.getQuery(em.getEntityManagerFactory(), session, countJpql, multiTenant);
+      TypedQuery<?> countQuery = new EJBQueryImpl(dbQuery, (EntityManagerImpl) em.getDelegate());
+      for (Parameter<?> parameter : countQuery.getParameters()) {
+        String name = parameterName(parameter);
+        if (parameter.getName() != null)
+          countQuery.setParameter(name, values.get(name));
+        else
+          countQuery.setParameter(parameter.getPosition(), values.get(name));
+      }
+
+      if (mode == CountMode.ESTIMATED) {
+        countQuery.setMaxResults(QueryCounter.ESTIMATED_CAP);
+        total = (long) countQuery.getResultList().size();
+      } else {
+        total = ((Number) countQuery.getSingleResult()).longValue();
+      }
+
+      QueryCounter.putCached(key, total);
+    }
+
+    this.totalEstimated = mode == CountMode.ESTIMATED && total >= QueryCounter.ESTIMATED_CAP;
+    return total;
+  }
+
+  private String parameterName(Parameter<?> parameter) {
+    return parameter.getName() != null ? parameter.getName() : String.valueOf(parameter.getPosition());
+  }
+
+  private String getSingleKeyName() {
+    List<String> keys = getKeyNames();
+    if (keys.size() == 1)
+      return keys.get(0);
+    return null;
+  }
+
+  private List<String> getKeyNames() {
+    EntityManager em = getEntityManager(domainClass);
+    List<String> names = new LinkedList<>();
+    List<TypeKey> keys = getKeys(em.getMetamodel().entity(domainClass));
+    for (TypeKey key : keys) {
+      names.add(key.name);
+    }
+    return names;
+  }
+
+  /**
+   * Enables the keyset pagination. Pages are read after the position stored in
+   * the cursor instead of skipping rows, which keeps deep pages as fast as the
+   * first one. An empty cursor reads the first page and null disables the mode.
+   * Instructions that don't select the entity alone, or that are ordered by
+   * expressions, keep the offset pagination.
+   */
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public String getCursor() {
+    return cursor;
+  }
+
+  /**
+   * @return the cursor of the page after the current one, or null when the
+   *         keyset pagination is disabled or there are no more elements
+   */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  /**
+   * Defines if fetches also calculate the total of elements. The exact mode runs a
+   * derived count instruction, while the estimated mode stops counting at
+   * {@link QueryCounter#ESTIMATED_CAP} rows. Totals are cached for a short period.
+   */
+  public void setCountMode(CountMode countMode) {
+    this.countMode = countMode == null ? CountMode.NONE : countMode;
+  }
+
+  public CountMode getCountMode() {
+    return countMode;
+  }
+
+  /**
+   * @return true when the total of elements was capped by the estimated count mode
+   */
+  public boolean isTotalEstimated() {
+    return totalEstimated;
+  }
+
   public EntityMetadata getMetadata() {
-    return new EntityMetadata(domainClass);
+    return EntityMetadataRegistry.getMetadata(domainClass);
   }
   
   /**
@@ -342,29 +531,33 @@ public class DataSource implements JsonSerializable {
   
   public void insert(Object value) {
     try {
-      if (value instanceof Var)
-        value = ((Var) value).getObject();
-
-      if(value instanceof Map) {
-        this.insertedElement = this.domainClass.newInstance();
-        Map<?, ?> values = (Map<?, ?>)value;
-        for(Object key : values.keySet()) {
-          try {
-            updateField(key.toString(), values.get(key));
-          }
-          catch(Exception e) {
-            // Abafa campo não encontrado
-          }
-        }
-      }
-      else {
-        this.insertedElement = value;
-      }
+      this.insertedElement = toEntity(value);
     }
     catch(Exception ex) {
       throw new RuntimeException(ex);
     }
   }
+
+  private Object toEntity(Object value) throws Exception {
+    if (value instanceof Var)
+      value = ((Var) value).getObject();
+
+    if(value instanceof Map) {
+      Object instance = this.domainClass.newInstance();
+      Map<?, ?> values = (Map<?, ?>)value;
+      for(Object key : values.keySet()) {
+        try {
+          updateField(instance, key.toString(), values.get(key));
+        }
+        catch(Exception e) {
+          // Abafa campo não encontrado
+        }
+      }
+      return instance;
+    }
+
+    return value;
+  }
   
   public Object save() {
     return save(true);
@@ -419,6 +612,7 @@ public class DataSource implements JsonSerializable {
           toSave = this.getObject();
 
         saved = em.merge(toSave);
+        QueryResultCache.touch(domainClass);
 
         if (toSave.getClass().getAnnotation(Multitenant.class) != null) {
           em.flush();
@@ -437,6 +631,122 @@ public class DataSource implements JsonSerializable {
     }
   }
   
+  /**
+   * Inserts all the objects (entities or maps of fields) using JDBC batch
+   * writing. The objects are flushed and detached every flushInterval
+   * objects, so the returned objects are detached.
+   */
+  public List<Object> insertAll(List<?> values, int flushInterval) {
+    return saveAll(values, flushInterval, true);
+  }
+
+  public List<Object> insertAll(List<?> values) {
+    return insertAll(values, BatchWriting.FLUSH_INTERVAL);
+  }
+
+  /**
+   * Inserts or updates all the objects (entities or maps of fields) using
+   * JDBC batch writing. The objects are flushed and detached every
+   * flushInterval objects, so the returned objects are detached.
+   */
+  public List<Object> saveAll(List<?> values, int flushInterval) {
+    return saveAll(values, flushInterval, false);
+  }
+
+  public List<Object> saveAll(List<?> values) {
+    return saveAll(values, BatchWriting.FLUSH_INTERVAL);
+  }
+
+  /**
+   * Runs the operations with JDBC batch writing enabled on the connection of
+   * the current transaction, writing the pending statements before returning.
+   */
+  public <T> T batch(Callable<T> operations) {
+    EntityManager em = getEntityManager(domainClass);
+    if (!em.getTransaction().isActive()) {
+      em.getTransaction().begin();
+    }
+    BatchWriting batchWriting = BatchWriting.enable(em);
+    try {
+      T result = operations.call();
+      em.flush();
+      return result;
+    }
+    catch(RuntimeException e) {
+      throw e;
+    }
+    catch(Exception e) {
+      throw new RuntimeException(e);
+    }
+    finally {
+      batchWriting.disable();
+    }
+  }
+
+  /**
+   * The objects are written in the transaction of the thread. After each
+   * flush only the objects written here are detached, so the entities read
+   * by other DataSources stay managed.
+   */
+  private List<Object> saveAll(List<?> values, int flushInterval, boolean insert) {
+    List<Object> result = new LinkedList<>();
+    List<Object> pending = new ArrayList<>();
+    EntityManager em = getEntityManager(domainClass);
+    try {
+      startMultitenant(em);
+      try {
+        if (!em.getTransaction().isActive()) {
+          em.getTransaction().begin();
+        }
+
+        BatchWriting batchWriting = BatchWriting.enable(em);
+        try {
+          int count = 0;
+          for (Object value : values) {
+            Object toSave = toEntity(value);
+            processCloudFields(toSave);
+            Object saved;
+            if (insert) {
+              em.persist(toSave);
+              saved = toSave;
+            } else {
+              saved = em.merge(toSave);
+            }
+            result.add(saved);
+            pending.add(saved);
+
+            count++;
+            if (flushInterval > 0 && count % flushInterval == 0) {
+              em.flush();
+              detach(em, pending);
+            }
+          }
+
+          em.flush();
+          if (flushInterval > 0) {
+            detach(em, pending);
+          }
+        } finally {
+          batchWriting.disable();
+        }
+        QueryResultCache.touch(domainClass);
+      } finally {
+        endMultitetant();
+      }
+    }
+    catch(Exception e) {
+      throw new RuntimeException(e);
+    }
+    return result;
+  }
+
+  private static void detach(EntityManager em, List<Object> entities) {
+    for (Object entity : entities) {
+      em.detach(entity);
+    }
+    entities.clear();
+  }
+
   public void delete(Var[] primaryKeys) {
     insert();
     int i = 0;
@@ -478,6 +788,7 @@ public class DataSource implements JsonSerializable {
       // returns managed instance
       toRemove = em.merge(toRemove);
       em.remove(toRemove);
+      QueryResultCache.touch(domainClass);
       if (!multiTenant) {
         em.flush();
       }
@@ -675,7 +986,13 @@ public class DataSource implements JsonSerializable {
     if(this.page.getNumberOfElements() > (this.current + 1))
       this.current++;
     else {
-      if(this.page.hasNext()) {
+      if(this.nextCursor != null) {
+        this.cursor = this.nextCursor;
+        this.pageRequest = this.pageRequest.next();
+        this.fetch();
+        this.current = 0;
+      }
+      else if(this.page.hasNext()) {
         this.pageRequest = this.page.nextPageable();
         this.fetch();
         this.current = 0;
@@ -704,7 +1021,7 @@ public class DataSource implements JsonSerializable {
     if(this.page.getNumberOfElements() > (this.current + 1))
       return true;
     else {
-      if(this.page.hasNext()) {
+      if(this.page.hasNext() || this.nextCursor != null) {
         return true;
       }
       else {
@@ -1012,6 +1329,8 @@ public class DataSource implements JsonSerializable {
       }
 
       em.persist(insertion);
+      QueryResultCache.touch(domainClass);
+      QueryResultCache.touch(insertion.getClass());
       if (!multiTenant) {
         em.flush();
       }
@@ -1203,6 +1522,7 @@ public class DataSource implements JsonSerializable {
             em.getTransaction().begin();
           }
           strQuery.executeUpdate();
+          QueryResultCache.touch(domainClass, query);
         } catch (Exception e) {
           throw new RuntimeException(e);
         }
@@ -1270,28 +1590,7 @@ public class DataSource implements JsonSerializable {
           value = "authenticated";
         }
         
-        String[] authorities = value.trim().split(";");
-        
-        for(String role : authorities) {
-          if(role.equalsIgnoreCase("authenticated")) {
-            authorized = RestClient.getRestClient().getUser() != null;
-            if(authorized)
-              break;
-          }
-          if(role.equalsIgnoreCase("permitAll") || role.equalsIgnoreCase("public")) {
-            authorized = true;
-            break;
-          }
-          for(GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-            if(role.equalsIgnoreCase(authority.getAuthority())) {
-              authorized = true;
-              break;
-            }
-          }
-          
-          if(authorized)
-            break;
-        }
+        authorized = Authorization.isAuthorized(value);
       }
     }
     
@@ -14,13 +14,12 @@ import org.eclipse.persistence.internal.jpa.parsing.DotNode;
 import org.eclipse.persistence.internal.jpa.parsing.SelectNode;
 import org.eclipse.persistence.internal.jpa.parsing.VariableNode;
 import org.eclipse.persistence.internal.jpa.parsing.jpql.JPQLParser;
-import org.springframework.security.core.GrantedAuthority;
 
-import cronapi.RestClient;
 import cronapi.Var;
 import cronapi.database.DataSourceFilter.DataSourceFilterItem;
 import cronapi.database.DataSourceFilter.DataSourceOrderItem;
 import cronapi.i18n.Messages;
+import cronapi.rest.security.Authorization;
 import cronapi.rest.security.CronappSecurity;
 
 public class DataSourceFilter {
@@ -184,28 +183,8 @@ public class DataSourceFilter {
       if(annotation != null) {
         CronappSecurity security = (CronappSecurity)annotation;
         String authoritiesStr = security.filter();
-        String[] authorities;
         if(authoritiesStr != null && !authoritiesStr.trim().isEmpty()) {
-          authorized = false;
-          authorities = authoritiesStr.trim().split(";");
-          for(String role : authorities) {
-            if(role.equalsIgnoreCase("authenticated")) {
-              authorized = RestClient.getRestClient().getUser() != null;
-              if(authorized)
-                break;
-            }
-            if(role.equalsIgnoreCase("permitAll") || role.equalsIgnoreCase("public")) {
-              authorized = true;
-              break;
-            }
-            for(GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-              if(role.equalsIgnoreCase(authority.getAuthority())) {
-                authorized = true;
-                break;
-              }
-            }
-
-          }
+          authorized = Authorization.isAuthorized(authoritiesStr);
         }
       }
       if(authorized) {
@@ -54,7 +54,7 @@ public class DatabaseQueryManager {
     final Var[] params = toVarArray(objParams);
     return runIntoTransaction(() -> {
       
-      if(QueryManager.getType(query).equals("blockly")) {
+      if(QueryManager.compile(query).isBlockly()) {
         return QueryManager.executeBlockly(query, "GET", params);
       }
       else {
@@ -76,7 +76,7 @@ public class DatabaseQueryManager {
 
     return runIntoTransaction(() -> {
       
-      if(QueryManager.getType(query).equals("blockly")) {
+      if(QueryManager.compile(query).isBlockly()) {
         Var[] params = (Var[])ArrayUtils.addAll(new Var[] { data }, extraParams);
         QueryManager.executeEvent(query, data, "beforeInsert");
         Var inserted = QueryManager.executeBlockly(query, "POST", params);
@@ -106,7 +106,7 @@ public class DatabaseQueryManager {
 
     return runIntoTransaction(() -> {
       
-      if(QueryManager.getType(query).equals("blockly")) {
+      if(QueryManager.compile(query).isBlockly()) {
         Var[] params = (Var[])ArrayUtils.addAll(new Var[] { data }, extraParams);
         QueryManager.executeEvent(query, data, "beforeUpdate");
         Var modified = QueryManager.executeBlockly(query, "PUT", params);
@@ -132,7 +132,7 @@ public class DatabaseQueryManager {
 
     runIntoTransaction(() -> {
       
-      if(QueryManager.getType(query).equals("blockly")) {
+      if(QueryManager.compile(query).isBlockly()) {
         QueryManager.executeEvent(query, "beforeDelete", extraParams);
         QueryManager.executeBlockly(query, "DELETE", extraParams);
         QueryManager.executeEvent(query, "afterDelete", extraParams);
@@ -2,15 +2,18 @@ package cronapi.database;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
-import javax.persistence.EntityManager;
 import javax.persistence.metamodel.Attribute;
 import javax.persistence.metamodel.EntityType;
 import javax.persistence.metamodel.ManagedType;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import cronapi.database.EntityMetadataRegistry.Graph;
+import cronapi.database.EntityMetadataRegistry.Reference;
+
 public class EntityMetadata {
   private String name;
   private String simpleName;
@@ -18,13 +21,13 @@ public class EntityMetadata {
   private String idLink;
   private String findLink;
   private List<FieldMetadata> fields = new ArrayList<>();
-  private EntityManager em;
   
   private Map<String, RelationMetadata> relations = new LinkedHashMap<>();
   
   public EntityMetadata(String domainClass) {
     try {
-      construct(Class.forName(domainClass), true);
+      Class clazz = Class.forName(domainClass);
+      construct(clazz, true, EntityMetadataRegistry.getGraph(clazz));
     }
     catch(ClassNotFoundException e) {
       throw new RuntimeException(e);
@@ -32,21 +35,25 @@ public class EntityMetadata {
   }
   
   public EntityMetadata(Class domainClass) {
-    construct(domainClass, true);
+    construct(domainClass, true, EntityMetadataRegistry.getGraph(domainClass));
   }
   
   public EntityMetadata(ManagedType type, boolean detectRelations) {
     try {
-      construct(Class.forName(type.getJavaType().getCanonicalName()), detectRelations);
+      Class clazz = Class.forName(type.getJavaType().getCanonicalName());
+      construct(clazz, detectRelations, EntityMetadataRegistry.getGraph(clazz));
     }
     catch(ClassNotFoundException e) {
       throw new RuntimeException(e);
     }
   }
+
+  EntityMetadata(Class domainClass, boolean detectRelations, Graph graph) {
+    construct(domainClass, detectRelations, graph);
+  }
   
-  private void construct(Class domainClass, boolean detectRelations) {
-    em = TransactionManager.getEntityManager(domainClass);
-    EntityType type = em.getMetamodel().entity(domainClass);
+  private void construct(Class domainClass, boolean detectRelations, Graph graph) {
+    EntityType type = graph.getMetamodel().entity(domainClass);
     
     this.name = type.getJavaType().getCanonicalName();
     this.simpleName = type.getName();
@@ -66,11 +73,13 @@ public class EntityMetadata {
     }
     
     if(detectRelations) {
-      for(ManagedType managedType : em.getMetamodel().getManagedTypes()) {
-        checkReverseField(domainClass, managedType);
+      for(Reference reference : graph.getReferences(domainClass)) {
+        addReverseRelations(graph, domainClass, reference.owner, reference.attribute);
       }
     }
-    
+
+    this.fields = Collections.unmodifiableList(fields);
+    this.relations = Collections.unmodifiableMap(relations);
   }
   
   @JsonIgnore
@@ -78,35 +87,22 @@ public class EntityMetadata {
     return this.idLink;
   }
   
-  private ManagedType findManagedType(Class javaType) {
-    for(ManagedType managedType : em.getMetamodel().getManagedTypes()) {
-      if(managedType.getJavaType() == javaType) {
-        return managedType;
+  private void addReverseRelations(Graph graph, Class domainClass, ManagedType managedType, Attribute attr) {
+    RelationMetadata relation = new RelationMetadata(this, attr, managedType, null, null, summary(graph, managedType));
+    relations.put(relation.getId(), relation);
+
+    for(Object obj2 : managedType.getAttributes()) {
+      Attribute attr2 = (Attribute)obj2;
+      if(attr2.getJavaType() != domainClass && attr2.isAssociation()) {
+        ManagedType to = graph.findManagedType(attr2.getJavaType());
+        RelationMetadata relation2 = new RelationMetadata(this, attr2, to, attr, managedType, summary(graph, to));
+        relations.put(relation2.getId(), relation2);
       }
     }
-    
-    return null;
   }
-  
-  private void checkReverseField(Class domainClass, ManagedType managedType) {
-    for(Object obj : managedType.getAttributes()) {
-      Attribute attr = (Attribute)obj;
-      
-      if(attr.getJavaType() == domainClass) {
-        RelationMetadata relation = new RelationMetadata(this, attr, managedType, null, null);
-        relations.put(relation.getId(), relation);
-        
-        for(Object obj2 : managedType.getAttributes()) {
-          Attribute attr2 = (Attribute)obj2;
-          if(attr2.getJavaType() != domainClass && attr2.isAssociation()) {
 
-            RelationMetadata relation2 = new RelationMetadata(this, attr2, findManagedType(attr2.getJavaType()), attr, managedType);
-            relations.put(relation2.getId(), relation2);
-          }
-        }
-      }
-    }
-    
+  private EntityMetadata summary(Graph graph, ManagedType type) {
+    return EntityMetadataRegistry.getMetadata(graph, type.getJavaType(), false);
   }
   
   public String getName() {
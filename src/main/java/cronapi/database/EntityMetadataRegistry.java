@@ -0,0 +1,128 @@
+package cronapi.database;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.metamodel.Attribute;
+import javax.persistence.metamodel.ManagedType;
+import javax.persistence.metamodel.Metamodel;
+
+import cronapi.util.Operations;
+
+/**
+ * Registry of the {@link EntityMetadata} of each EntityManagerFactory. The
+ * metadata is built lazily once per entity and the attributes that reference
+ * each entity are indexed when the factory is first used, so the relations of
+ * an entity don't require scanning every managed type.
+ */
+public class EntityMetadataRegistry {
+
+  private static final Map<EntityManagerFactory, Graph> GRAPHS = Collections.synchronizedMap(new WeakHashMap<>());
+
+  /**
+   * Returns the metadata of the entity with its relations.
+   */
+  public static EntityMetadata getMetadata(Class domainClass) {
+    return getMetadata(domainClass, true);
+  }
+
+  /**
+   * Returns the metadata of the entity, with or without its relations. In
+   * debug mode the metadata is always rebuilt, because the entities may be
+   * reloaded.
+   */
+  public static EntityMetadata getMetadata(Class domainClass, boolean detectRelations) {
+    return getMetadata(getGraph(domainClass), domainClass, detectRelations);
+  }
+
+  static EntityMetadata getMetadata(Graph graph, Class domainClass, boolean detectRelations) {
+    if(Operations.IS_DEBUG) {
+      return new EntityMetadata(domainClass, detectRelations, graph);
+    }
+
+    Map<Class, EntityMetadata> cache = detectRelations ? graph.entities : graph.summaries;
+    EntityMetadata metadata = cache.get(domainClass);
+    if(metadata == null) {
+      metadata = new EntityMetadata(domainClass, detectRelations, graph);
+      cache.put(domainClass, metadata);
+    }
+
+    return metadata;
+  }
+
+  /**
+   * Discards every metadata already built. They are built again on the next
+   * access.
+   */
+  public static void invalidate() {
+    GRAPHS.clear();
+  }
+
+  static Graph getGraph(Class domainClass) {
+    EntityManagerFactory factory = TransactionManager.findEntityManagerFactory(domainClass);
+    if(Operations.IS_DEBUG) {
+      return new Graph(factory.getMetamodel());
+    }
+    return GRAPHS.computeIfAbsent(factory, f -> new Graph(f.getMetamodel()));
+  }
+
+  static class Graph {
+
+    private final Metamodel metamodel;
+    private final Map<Class, ManagedType> managedTypes = new LinkedHashMap<>();
+    private final Map<Class, List<Reference>> references = new LinkedHashMap<>();
+
+    private final Map<Class, EntityMetadata> entities = new ConcurrentHashMap<>();
+    private final Map<Class, EntityMetadata> summaries = new ConcurrentHashMap<>();
+
+    private Graph(Metamodel metamodel) {
+      this.metamodel = metamodel;
+
+      for(ManagedType managedType : metamodel.getManagedTypes()) {
+        managedTypes.put(managedType.getJavaType(), managedType);
+      }
+
+      for(ManagedType managedType : metamodel.getManagedTypes()) {
+        for(Object obj : managedType.getAttributes()) {
+          Attribute attr = (Attribute)obj;
+          if(managedTypes.containsKey(attr.getJavaType())) {
+            references.computeIfAbsent(attr.getJavaType(), k -> new ArrayList<>()).add(new Reference(managedType, attr));
+          }
+        }
+      }
+    }
+
+    Metamodel getMetamodel() {
+      return metamodel;
+    }
+
+    ManagedType findManagedType(Class javaType) {
+      return managedTypes.get(javaType);
+    }
+
+    /**
+     * @return the attributes of every managed type whose type is the given class
+     */
+    List<Reference> getReferences(Class javaType) {
+      List<Reference> list = references.get(javaType);
+      return list != null ? list : Collections.emptyList();
+    }
+  }
+
+  static class Reference {
+
+    final ManagedType owner;
+    final Attribute attribute;
+
+    private Reference(ManagedType owner, Attribute attribute) {
+      this.owner = owner;
+      this.attribute = attribute;
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package cronapi.database;
+
+import java.util.Map;
+import java.util.Objects;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.eclipse.persistence.internal.jpa.EJBQueryImpl;
+import org.eclipse.persistence.internal.sessions.AbstractSession;
+import org.eclipse.persistence.queries.DatabaseQuery;
+import org.eclipse.persistence.sessions.DatabaseRecord;
+
+import cronapi.util.ConcurrentCache;
+
+/**
+ * Cache of JPQL instructions already parsed and compiled to EclipseLink
+ * {@link DatabaseQuery} objects. Entries are keyed by the JPQL text, the
+ * EntityManagerFactory that owns the descriptors and the multitenant mode,
+ * because the tenant criteria are compiled into the query.
+ */
+public class JPQLQueryCache {
+
+  private static final int MAX_SIZE = Integer.getInteger("cronapi.jpql.cache.size", 2000);
+
+  private static final ConcurrentCache<QueryKey, DatabaseQuery> CACHE = new ConcurrentCache<>(MAX_SIZE);
+
+  /**
+   * Returns a private copy of the compiled query, so callers can set
+   * parameters, first and max results without affecting other threads.
+   */
+  public static DatabaseQuery getQuery(EntityManagerFactory factory, AbstractSession session, String jpql,
+                                       boolean multiTenant) {
+    QueryKey key = new QueryKey(factory, jpql, multiTenant);
+    DatabaseQuery compiled = CACHE.get(key);
+    if(compiled == null) {
+      compiled = EJBQueryImpl.buildEJBQLDatabaseQuery("customQuery", jpql, session, (Enum)null, (Map)null,
+          session.getDatasourcePlatform().getConversionManager().getLoader());
+      compiled.checkPrepare(session, new DatabaseRecord());
+      CACHE.put(key, compiled);
+    }
+
+    return (DatabaseQuery)compiled.clone();
+  }
+
+  public static void clear() {
+    CACHE.clear();
+  }
+
+  public static ConcurrentCache<?, ?> getCache() {
+    return CACHE;
+  }
+
+  private static class QueryKey {
+
+    private final EntityManagerFactory factory;
+    private final String jpql;
+    private final boolean multiTenant;
+    private final int hash;
+
+    private QueryKey(EntityManagerFactory factory, String jpql, boolean multiTenant) {
+      this.factory = factory;
+      this.jpql = jpql;
+      this.multiTenant = multiTenant;
+      this.hash = Objects.hash(System.identityHashCode(factory), jpql, multiTenant);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(this == obj)
+        return true;
+      if(!(obj instanceof QueryKey))
+        return false;
+      QueryKey other = (QueryKey)obj;
+      return factory == other.factory && multiTenant == other.multiTenant && jpql.equals(other.jpql);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
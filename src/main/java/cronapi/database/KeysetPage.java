@@ -0,0 +1,334 @@
+package cronapi.database;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+
+import cronapi.Utils;
+import cronapi.Var;
+import cronapi.i18n.Messages;
+
+/**
+ * Keyset (seek) pagination support for {@link DataSource}. Instead of skipping
+ * rows with an offset, the next page is read with a predicate over the order
+ * columns of the last row already returned, which are carried between requests
+ * by an opaque cursor token. The entity ids are always added to the order, so
+ * the position is unique.
+ */
+public class KeysetPage {
+
+  public static final String PARAM_PREFIX = "cronapiKeyset";
+
+  private static final Pattern SELECT = Pattern.compile("^\\s*select\\s+(\\w+)\\s+from\\s+([\\w.]+)\\s+(?:as\\s+)?(\\w+)\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern WHERE = Pattern.compile("\\bwhere\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern GROUP_BY = Pattern.compile("\\bgroup\\s+by\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ORDER_ITEM = Pattern.compile("^(\\w+)\\.([\\w.]+)(?:\\s+(asc|desc))?$", Pattern.CASE_INSENSITIVE);
+
+  private final String jpql;
+  private final List<String> paths;
+  private final List<Boolean> descending;
+  private final Object[] values;
+
+  private KeysetPage(String jpql, List<String> paths, List<Boolean> descending, Object[] values) {
+    this.jpql = jpql;
+    this.paths = paths;
+    this.descending = descending;
+    this.values = values;
+  }
+
+  /**
+   * Rewrites the JPQL to read the page after the given cursor. Returns null
+   * when the instruction doesn't select the root entity alone or is ordered by
+   * expressions other than plain attributes, in which case the caller keeps
+   * the offset pagination.
+   *
+   * @param jpql the instruction, already with the filters applied
+   * @param simpleEntity the simple name of the datasource entity
+   * @param keys the id attributes of the entity
+   * @param cursor the token returned with the previous page, or empty for the first page
+   */
+  public static KeysetPage prepare(String jpql, String simpleEntity, List<String> keys, String cursor) {
+    if(keys == null || keys.isEmpty())
+      return null;
+
+    Matcher select = SELECT.matcher(jpql);
+    if(!select.find() || !select.group(1).equals(select.group(3)) || indexOf(jpql, GROUP_BY) > -1)
+      return null;
+
+    String from = select.group(2);
+    if(!from.substring(from.lastIndexOf(".") + 1).equals(simpleEntity))
+      return null;
+
+    String alias = select.group(3);
+    String base = jpql;
+    List<String> paths = new ArrayList<>();
+    List<Boolean> descending = new ArrayList<>();
+
+    int orderIndex = indexOf(jpql, ORDER_BY);
+    if(orderIndex > -1) {
+      String orderClause = jpql.substring(orderIndex).replaceFirst("(?i)^order\\s+by", "");
+      base = jpql.substring(0, orderIndex);
+      for(String item : orderClause.split(",")) {
+        Matcher matcher = ORDER_ITEM.matcher(item.trim());
+        if(!matcher.matches() || !matcher.group(1).equals(alias))
+          return null;
+        if(!paths.contains(matcher.group(2))) {
+          paths.add(matcher.group(2));
+          descending.add("desc".equalsIgnoreCase(matcher.group(3)));
+        }
+      }
+    }
+
+    for(String key : keys) {
+      if(!paths.contains(key)) {
+        paths.add(key);
+        descending.add(false);
+      }
+    }
+
+    Object[] values = null;
+    if(cursor != null && !cursor.trim().isEmpty()) {
+      values = decode(cursor, paths, descending);
+    }
+
+    StringBuilder result = new StringBuilder();
+    if(values != null) {
+      StringBuilder predicate = new StringBuilder();
+      for(int i = 0; i < paths.size(); i++) {
+        if(i > 0)
+          predicate.append(" OR ");
+        predicate.append("(");
+        for(int j = 0; j < i; j++) {
+          predicate.append(alias).append(".").append(paths.get(j)).append(" = :").append(PARAM_PREFIX).append(j).append(" AND ");
+        }
+        predicate.append(alias).append(".").append(paths.get(i)).append(descending.get(i) ? " < :" : " > :").append(PARAM_PREFIX).append(i);
+        predicate.append(")");
+      }
+
+      int whereIndex = indexOf(base, WHERE);
+      if(whereIndex > -1) {
+        result.append(base.substring(0, whereIndex)).append("WHERE (");
+        result.append(base.substring(whereIndex + "where".length()).trim());
+        result.append(") AND (").append(predicate).append(")");
+      }
+      else {
+        result.append(base.trim()).append(" WHERE (").append(predicate).append(")");
+      }
+    }
+    else {
+      result.append(base.trim());
+    }
+
+    result.append(" ORDER BY ");
+    for(int i = 0; i < paths.size(); i++) {
+      if(i > 0)
+        result.append(", ");
+      result.append(alias).append(".").append(paths.get(i)).append(descending.get(i) ? " DESC" : " ASC");
+    }
+
+    return new KeysetPage(result.toString(), paths, descending, values);
+  }
+
+  public String getJpql() {
+    return jpql;
+  }
+
+  public static boolean isKeysetParameter(String name) {
+    return name != null && name.startsWith(PARAM_PREFIX);
+  }
+
+  /**
+   * Binds the values of the cursor, converted to the type expected by each
+   * parameter.
+   */
+  public void bind(TypedQuery<?> query) {
+    if(values == null)
+      return;
+
+    for(int i = 0; i < values.length; i++) {
+      Parameter<?> parameter = query.getParameter(PARAM_PREFIX + i);
+      query.setParameter(PARAM_PREFIX + i, toParameter(values[i], parameter.getParameterType()));
+    }
+  }
+
+  /**
+   * Builds the token that positions the next page after the given row.
+   */
+  public String nextCursor(Object lastRow) {
+    JsonArray array = new JsonArray();
+    for(String path : paths) {
+      Object value = lastRow;
+      for(String name : path.split("\\.")) {
+        if(value == null)
+          break;
+        value = Utils.getFieldValue(value, name);
+      }
+      array.add(encodeValue(value));
+    }
+
+    JsonObject token = new JsonObject();
+    token.addProperty("o", signature(paths, descending));
+    token.add("v", array);
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static Object[] decode(String cursor, List<String> paths, List<Boolean> descending) {
+    JsonObject token;
+    try {
+      String json = new String(Base64.getUrlDecoder().decode(cursor.trim()), StandardCharsets.UTF_8);
+      token = new JsonParser().parse(json).getAsJsonObject();
+    }
+    catch(RuntimeException e) {
+      throw new RuntimeException(Messages.getString("invalidCursor"), e);
+    }
+
+    JsonArray array = token.getAsJsonArray("v");
+    if(array == null || array.size() != paths.size() || !token.has("o") || token.get("o").getAsInt() != signature(paths, descending))
+      throw new RuntimeException(Messages.getString("invalidCursor"));
+
+    Object[] values = new Object[array.size()];
+    for(int i = 0; i < array.size(); i++) {
+      values[i] = decodeValue(array.get(i));
+    }
+    return values;
+  }
+
+  private static int signature(List<String> paths, List<Boolean> descending) {
+    return 31 * paths.hashCode() + descending.hashCode();
+  }
+
+  private static JsonElement encodeValue(Object value) {
+    JsonArray encoded = new JsonArray();
+    if(value == null) {
+      encoded.add(new JsonPrimitive("null"));
+    }
+    else if(value instanceof Date) {
+      encoded.add(new JsonPrimitive("date"));
+      encoded.add(new JsonPrimitive(((Date)value).getTime()));
+    }
+    else if(value instanceof Calendar) {
+      encoded.add(new JsonPrimitive("date"));
+      encoded.add(new JsonPrimitive(((Calendar)value).getTimeInMillis()));
+    }
+    else if(value instanceof Number) {
+      encoded.add(new JsonPrimitive("number"));
+      encoded.add(new JsonPrimitive(value.toString()));
+    }
+    else if(value instanceof Boolean) {
+      encoded.add(new JsonPrimitive("boolean"));
+      encoded.add(new JsonPrimitive((Boolean)value));
+    }
+    else {
+      encoded.add(new JsonPrimitive("text"));
+      encoded.add(new JsonPrimitive(value.toString()));
+    }
+    return encoded;
+  }
+
+  private static Object decodeValue(JsonElement element) {
+    JsonArray encoded = element.getAsJsonArray();
+    String type = encoded.get(0).getAsString();
+    switch(type) {
+      case "null":
+        return null;
+      case "date":
+        return new Date(encoded.get(1).getAsLong());
+      case "number":
+        return new BigDecimal(encoded.get(1).getAsString());
+      case "boolean":
+        return encoded.get(1).getAsBoolean();
+      default:
+        return encoded.get(1).getAsString();
+    }
+  }
+
+  private static Object toParameter(Object value, Class<?> type) {
+    if(value == null || type == null || type.isInstance(value))
+      return value;
+
+    if(value instanceof BigDecimal) {
+      BigDecimal number = (BigDecimal)value;
+      if(type == Long.class || type == long.class)
+        return number.longValue();
+      if(type == Integer.class || type == int.class)
+        return number.intValue();
+      if(type == Short.class || type == short.class)
+        return number.shortValue();
+      if(type == Byte.class || type == byte.class)
+        return number.byteValue();
+      if(type == Double.class || type == double.class)
+        return number.doubleValue();
+      if(type == Float.class || type == float.class)
+        return number.floatValue();
+      if(type == java.math.BigInteger.class)
+        return number.toBigInteger();
+    }
+
+    if(value instanceof Date) {
+      long time = ((Date)value).getTime();
+      if(type == java.sql.Timestamp.class)
+        return new java.sql.Timestamp(time);
+      if(type == java.sql.Date.class)
+        return new java.sql.Date(time);
+      if(type == java.sql.Time.class)
+        return new java.sql.Time(time);
+      if(type == Calendar.class) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        return calendar;
+      }
+    }
+
+    if(value instanceof String && type.isEnum()) {
+      for(Object constant : type.getEnumConstants()) {
+        if(((Enum)constant).name().equals(value))
+          return constant;
+      }
+    }
+
+    if(value instanceof String && type == java.util.UUID.class)
+      return java.util.UUID.fromString((String)value);
+
+    return Var.valueOf(value).getObject(type);
+  }
+
+  /**
+   * Position of the first match outside of parentheses and string literals.
+   */
+  private static int indexOf(String jpql, Pattern pattern) {
+    Matcher matcher = pattern.matcher(jpql);
+    while(matcher.find()) {
+      int depth = 0;
+      boolean quoted = false;
+      for(int i = 0; i < matcher.start(); i++) {
+        char c = jpql.charAt(i);
+        if(c == '\'')
+          quoted = !quoted;
+        else if(!quoted && c == '(')
+          depth++;
+        else if(!quoted && c == ')')
+          depth--;
+      }
+      if(depth == 0 && !quoted)
+        return matcher.start();
+    }
+    return -1;
+  }
+}
@@ -13,6 +13,7 @@ import cronapi.CronapiMetaData.ObjectType;
 import cronapi.ParamMetaData;
 import cronapi.RestClient;
 import cronapi.Var;
+import cronapi.util.Callback;
 
 /**
  * Classe que representa operações de acesso ao banco
@@ -72,6 +73,7 @@ public class Operations {
       int pageNumber = Integer.parseInt(pageFromRequest);
       int pageSize = Integer.parseInt(pageSizeFromRequest);
       page = new PageRequest(pageNumber, pageSize);
+      ds.setCursor(RestClient.getRestClient().getRequest().getParameter("cursor"));
     }
     
     if(query == Var.VAR_NULL)
@@ -82,6 +84,10 @@ public class Operations {
       else
         ds.filter(query.getObjectAsString(), finalParams.toArray(new Var[0]));
     }
+
+    if (ds.getNextCursor() != null && RestClient.getRestClient().getResponse() != null)
+      RestClient.getRestClient().getResponse().setHeader("X-Next-Cursor", ds.getNextCursor());
+
     Var varDs = new Var(ds);
     return varDs;
   }
@@ -147,6 +153,17 @@ public class Operations {
     }
   }
   
+  @CronapiMetaData(type = "function", name = "{{datasourceInsertAll}}", nameTags = { "insertAll", "bulkInsert",
+      "inserirTodos", "inserirLista" }, description = "{{functionToInsertAllObjectsInDatasource}}", params = {
+          "{{entity}}", "{{datasourceInsertAllList}}" }, paramsType = { ObjectType.STRING,
+              ObjectType.LIST }, returnType = ObjectType.VOID)
+  public static void insertAll(Var entity, Var objects) {
+    if(!objects.equals(Var.VAR_NULL)) {
+      DataSource ds = new DataSource(entity.getObjectAsString());
+      ds.insertAll(objects.getObjectAsList());
+    }
+  }
+
   @CronapiMetaData(type = "function", name = "{{update}}", nameTags = { "update", "edit", "editar",
       "alterar" }, description = "{{functionToUpdateObjectInDatasource}}", params = { "{{datasource}}",
           "{{entity}}" }, paramsType = { ObjectType.DATASET,
@@ -227,6 +244,30 @@ public class Operations {
     }
     return query(entity, query, vars);
   }
+
+  @CronapiMetaData(type = "function", name = "{{datasourceStream}}", nameTags = { "stream", "cursor", "forEach",
+      "paraCada", "percorrer" }, description = "{{functionToStreamQueryInDatasource}}", params = { "{{entity}}",
+          "{{query}}", "{{paramsQueryTuples}}", "{{fetchSize}}", "{{callBackStatements}}" }, paramsType = {
+              ObjectType.STRING, ObjectType.STRING, ObjectType.MAP, ObjectType.LONG,
+              ObjectType.STATEMENTSENDER }, returnType = ObjectType.VOID)
+  public static void stream(Var entity, Var query, Var params, Var fetchSize, Callback callback) throws Exception {
+    List<Var> vars = new LinkedList<>();
+    if (params.getObject() instanceof Map) {
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) params.getObject()).entrySet()) {
+        vars.add(new Var(entry.getKey().toString(), Var.valueOf(entry.getValue())));
+      }
+    }
+
+    int size = fetchSize.getObject() == null ? QueryCursor.FETCH_SIZE : fetchSize.getObjectAsInt();
+    String jpql = query == Var.VAR_NULL ? null : query.getObjectAsString();
+
+    DataSource ds = new DataSource(entity.getObjectAsString());
+    try (QueryCursor cursor = ds.stream(jpql, size, QueryCursor.CLEAR_INTERVAL, vars.toArray(new Var[0]))) {
+      while (cursor.hasNext()) {
+        callback.call(Var.valueOf(cursor.next()));
+      }
+    }
+  }
   
   	@CronapiMetaData(type = "function", name = "{{datasourceGetColumnName}}", nameTags = { "GetColumn",
 			"obterColuna","datasource","dados" }, description = "{{datasourceGetColumnDescription}}", params = {
@@ -0,0 +1,124 @@
+package cronapi.database;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import cronapi.RestClient;
+import cronapi.util.ConcurrentCache;
+
+/**
+ * Derives count instructions from the JPQL used by a {@link DataSource} and
+ * caches the totals for a short period, keyed by instruction, parameters and
+ * tenant.
+ */
+public class QueryCounter {
+
+  public enum CountMode {
+    NONE, EXACT, ESTIMATED;
+
+    public static CountMode fromString(String value) {
+      if(value == null || value.trim().isEmpty() || value.equalsIgnoreCase("false"))
+        return NONE;
+      if(value.equalsIgnoreCase("estimated"))
+        return ESTIMATED;
+      return EXACT;
+    }
+  }
+
+  public static final int ESTIMATED_CAP = Integer.getInteger("cronapi.count.estimated.cap", 10000);
+
+  private static final long EXPIRES = Long.getLong("cronapi.count.cache.expires", 10000);
+
+  private static final ConcurrentCache<String, Long> CACHE = new ConcurrentCache<>(
+      Integer.getInteger("cronapi.count.cache.size", 5000), EXPIRES);
+
+  private static final Pattern SELECT = Pattern.compile("^\\s*select\\s+(distinct\\s+)?(.*?)\\s+from\\s", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+  private static final Pattern GROUP_BY = Pattern.compile("\\bgroup\\s+by\\b", Pattern.CASE_INSENSITIVE);
+  private static final Pattern ORDER_BY = Pattern.compile("\\border\\s+by\\b", Pattern.CASE_INSENSITIVE);
+
+  /**
+   * Builds the count instruction for the given JPQL or returns null when the
+   * instruction can't be safely derived (grouped or multi-valued distinct
+   * selects).
+   */
+  public static String toCountJpql(String jpql) {
+    return derive(jpql, null);
+  }
+
+  /**
+   * Builds the projection used by the estimated mode, which only reads the
+   * given attribute (the id) of the selected entity for at most
+   * {@link #ESTIMATED_CAP} rows. Returns null when the JPQL doesn't select the
+   * entity alone or there isn't a single id attribute, since the rows would be
+   * read whole; the exact count should be used instead.
+   */
+  public static String toEstimateJpql(String jpql, String projection) {
+    if(projection == null || projection.isEmpty())
+      return null;
+    return derive(jpql, projection);
+  }
+
+  private static String derive(String jpql, String projection) {
+    Matcher matcher = SELECT.matcher(jpql);
+    if(!matcher.find() || GROUP_BY.matcher(jpql).find())
+      return null;
+
+    boolean distinct = matcher.group(1) != null;
+    String selected = matcher.group(2).trim();
+    if(distinct && (selected.contains(",") || selected.toLowerCase().startsWith("new ")))
+      return null;
+
+    String body = jpql.substring(matcher.end() - 1);
+    Matcher order = ORDER_BY.matcher(body);
+    int orderIndex = -1;
+    while(order.find()) {
+      orderIndex = order.start();
+    }
+    if(orderIndex > -1)
+      body = body.substring(0, orderIndex);
+
+    String alias = JPQLConverter.getAliasFromSql(jpql);
+
+    String expression;
+    if(projection == null) {
+      if(distinct)
+        expression = "count(distinct " + selected + ")";
+      else
+        expression = "count(" + (alias.isEmpty() ? selected : alias) + ")";
+    }
+    else {
+      if(alias.isEmpty() || !selected.equals(alias))
+        return null;
+      expression = (distinct ? "distinct " : "") + selected + "." + projection;
+    }
+
+    return "select " + expression + " from" + body;
+  }
+
+  public static String key(String jpql, Map<String, Object> params, boolean multiTenant) {
+    StringBuilder key = new StringBuilder(jpql);
+    key.append('|').append(new TreeMap<>(params));
+    key.append('|').append(multiTenant);
+
+    TenantService tenantService = RestClient.getRestClient().getTenantService();
+    if(multiTenant && tenantService != null && tenantService.getContextIds() != null) {
+      key.append('|').append(new TreeMap<>(tenantService.getContextIds()));
+    }
+
+    return key.toString();
+  }
+
+  public static Long getCached(String key) {
+    return CACHE.get(key);
+  }
+
+  public static void putCached(String key, long total) {
+    CACHE.put(key, total);
+  }
+
+  public static ConcurrentCache<?, ?> getCache() {
+    return CACHE;
+  }
+}
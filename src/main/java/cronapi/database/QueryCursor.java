@@ -0,0 +1,103 @@
+package cronapi.database;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.config.HintValues;
+import org.eclipse.persistence.config.QueryHints;
+import org.eclipse.persistence.config.ResultSetType;
+import org.eclipse.persistence.queries.ScrollableCursor;
+
+/**
+ * Forward only iteration over the rows of a {@link DataSource} instruction,
+ * backed by an EclipseLink {@link ScrollableCursor}. Rows already returned are
+ * detached periodically, so they must not be changed after the next block is
+ * read.
+ */
+public class QueryCursor implements Iterator<Object>, Closeable {
+
+  public static final int FETCH_SIZE = Integer.getInteger("cronapi.stream.fetchSize", 500);
+  public static final int CLEAR_INTERVAL = Integer.getInteger("cronapi.stream.clearInterval", 1000);
+
+  private final EntityManager em;
+  private final ScrollableCursor cursor;
+  private final int clearInterval;
+  private long count;
+  private boolean closed;
+
+  QueryCursor(EntityManager em, ScrollableCursor cursor, int clearInterval) {
+    this.em = em;
+    this.cursor = cursor;
+    this.clearInterval = clearInterval;
+  }
+
+  /**
+   * Executes the query as a forward only cursor.
+   *
+   * @param em
+   *          - entity manager of the query, cleared every clearInterval rows
+   * @param query
+   *          - query with its parameters already set
+   * @param fetchSize
+   *          - number of rows read from the database in each round trip
+   * @param clearInterval
+   *          - number of rows read between each clear of the persistence context
+   */
+  public static QueryCursor open(EntityManager em, Query query, int fetchSize, int clearInterval) {
+    query.setHint(QueryHints.SCROLLABLE_CURSOR, HintValues.TRUE);
+    query.setHint(QueryHints.RESULT_SET_TYPE, ResultSetType.ForwardOnly);
+    query.setHint(QueryHints.JDBC_FETCH_SIZE, fetchSize);
+
+    return new QueryCursor(em, (ScrollableCursor) query.getSingleResult(), clearInterval);
+  }
+
+  @Override
+  public boolean hasNext() {
+    if(closed)
+      return false;
+
+    boolean hasNext = cursor.hasNext();
+    if(!hasNext)
+      close();
+
+    return hasNext;
+  }
+
+  @Override
+  public Object next() {
+    if(!hasNext())
+      throw new NoSuchElementException();
+
+    if(clearInterval > 0 && count > 0 && count % clearInterval == 0)
+      clear();
+
+    count++;
+    return cursor.next();
+  }
+
+  /**
+   * @return the number of rows already read
+   */
+  public long getCount() {
+    return count;
+  }
+
+  @Override
+  public void close() {
+    if(!closed) {
+      closed = true;
+      cursor.close();
+    }
+  }
+
+  private void clear() {
+    // Changes done to the rows already read are written before they are detached
+    if(em.isJoinedToTransaction())
+      em.flush();
+    em.clear();
+  }
+}
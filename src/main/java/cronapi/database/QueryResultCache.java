@@ -0,0 +1,335 @@
+package cronapi.database;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.persistence.metamodel.ManagedType;
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import cronapi.RestClient;
+import cronapi.Var;
+import cronapi.util.ConcurrentCache;
+
+/**
+ * Cache of the pages returned by the queries of customQuery.json that enable
+ * it with <code>"cache": {"enabled": true, "ttl": 60000, "maxSize": 100}</code>
+ * (ttl in milliseconds). A page is kept as the JSON already rendered for the
+ * request, after the field security and the calculated fields were applied,
+ * so the entities are never shared between requests. Each query has its own region, which is discarded
+ * when an entity read by the query is written through {@link DataSource}. The
+ * writes are invalidated again when the transaction is committed, so a page
+ * read while the transaction was open isn't kept.
+ */
+public class QueryResultCache {
+
+  private static final long DEFAULT_TTL = 60000;
+  private static final int DEFAULT_MAX_SIZE = 100;
+
+  private static final Pattern IDENTIFIER = Pattern.compile("\\w+");
+
+  private static final Pattern WRITE_TARGET = Pattern.compile("^\\s*(?:delete\\s+from|update)\\s+(\\w+)", Pattern.CASE_INSENSITIVE);
+
+  private static final Map<String, Region> REGIONS = new ConcurrentHashMap<>();
+
+  private static final ThreadLocal<Set<Class>> PENDING = new ThreadLocal<>();
+
+  /**
+   * @return the region of the query or null when the query doesn't enable the cache
+   */
+  public static Region getRegion(String id, JsonObject query) {
+    JsonElement cache = query.get("cache");
+    if(cache == null || cache.isJsonNull()) {
+      return null;
+    }
+
+    boolean enabled;
+    long ttl = DEFAULT_TTL;
+    int maxSize = DEFAULT_MAX_SIZE;
+    if(cache.isJsonObject()) {
+      JsonObject settings = cache.getAsJsonObject();
+      enabled = isTrue(settings.get("enabled"));
+      if(settings.has("ttl") && !settings.get("ttl").isJsonNull()) {
+        ttl = settings.get("ttl").getAsLong();
+      }
+      if(settings.has("maxSize") && !settings.get("maxSize").isJsonNull()) {
+        maxSize = settings.get("maxSize").getAsInt();
+      }
+    }
+    else {
+      enabled = isTrue(cache);
+    }
+
+    if(!enabled) {
+      REGIONS.remove(id);
+      return null;
+    }
+
+    Region region = REGIONS.get(id);
+    if(region == null || region.ttl != ttl || region.maxSize != maxSize) {
+      region = new Region(ttl, maxSize);
+      REGIONS.put(id, region);
+    }
+    return region;
+  }
+
+  private static boolean isTrue(JsonElement element) {
+    return element != null && !element.isJsonNull() && element.getAsBoolean();
+  }
+
+  /**
+   * Builds the key of a page. Besides the request, the key includes the
+   * tenant ids and the authorities of the user, because the rows and the
+   * fields returned depend on them, and the toJS header, which changes how
+   * dates are rendered.
+   */
+  public static String key(String id, List<Var> params, String queryString, Pageable page) {
+    StringBuilder key = new StringBuilder(id);
+    for(Var param : params) {
+      key.append('|').append(param.getId()).append('=').append(param.getObjectAsString());
+    }
+    key.append('|').append(queryString);
+    key.append('|').append(page.getPageNumber()).append(',').append(page.getPageSize());
+
+    RestClient client = RestClient.getRestClient();
+    TenantService tenantService = client.getTenantService();
+    if(tenantService != null && tenantService.getContextIds() != null) {
+      key.append('|').append(new TreeMap<>(tenantService.getContextIds()));
+    }
+
+    key.append('|').append(client.getUser() != null).append(new TreeSet<>(client.getAuthoritySet()));
+
+    HttpServletRequest request = client.getRequest();
+    if(request != null && request.getHeader("toJS") != null) {
+      key.append("|toJS=").append(request.getHeader("toJS"));
+    }
+
+    return key.toString();
+  }
+
+  /**
+   * Discards the regions that read the entity, now and again when the
+   * transaction of the current thread is committed.
+   */
+  public static void touch(Class domainClass) {
+    if(REGIONS.isEmpty()) {
+      return;
+    }
+
+    Set<Class> pending = PENDING.get();
+    if(pending == null) {
+      pending = new HashSet<>();
+      PENDING.set(pending);
+    }
+    pending.add(domainClass);
+    invalidate(domainClass);
+  }
+
+  /**
+   * Discards the regions that read the entity changed by the JPQL update or
+   * delete, or every region when the entity can't be determined.
+   */
+  public static void touch(Class domainClass, String jpql) {
+    if(REGIONS.isEmpty()) {
+      return;
+    }
+
+    touch(domainClass);
+
+    Matcher matcher = WRITE_TARGET.matcher(jpql);
+    ManagedType target = null;
+    if(matcher.find()) {
+      target = findManagedType(domainClass, matcher.group(1));
+    }
+
+    if(target != null) {
+      touch(target.getJavaType());
+    }
+    else {
+      touch(Object.class);
+    }
+  }
+
+  /**
+   * Invalidates the regions touched by the transaction just committed.
+   */
+  public static void afterCommit() {
+    Set<Class> pending = PENDING.get();
+    if(pending != null) {
+      PENDING.remove();
+      for(Class domainClass : pending) {
+        invalidate(domainClass);
+      }
+    }
+  }
+
+  public static void discardPending() {
+    PENDING.remove();
+  }
+
+  public static void invalidate(Class domainClass) {
+    for(Region region : REGIONS.values()) {
+      Set<Class> entities = region.entities;
+      if(domainClass == Object.class || entities == null || entities.contains(domainClass)) {
+        region.clear();
+      }
+    }
+  }
+
+  public static void clear() {
+    REGIONS.clear();
+  }
+
+  public static Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    for(Map.Entry<String, Region> entry : REGIONS.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().cache.getStats());
+    }
+    return stats;
+  }
+
+  private static ManagedType findManagedType(Class domainClass, String simpleName) {
+    for(ManagedType managedType : EntityMetadataRegistry.getGraph(domainClass).getMetamodel().getManagedTypes()) {
+      if(managedType.getJavaType().getSimpleName().equals(simpleName)) {
+        return managedType;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The entities named by the JPQL, which are the ones that invalidate the
+   * pages of the query.
+   */
+  private static Set<Class> findEntities(Class domainClass, String jpql) {
+    Set<String> identifiers = new HashSet<>();
+    Matcher matcher = IDENTIFIER.matcher(jpql);
+    while(matcher.find()) {
+      identifiers.add(matcher.group());
+    }
+
+    Set<Class> entities = new HashSet<>();
+    entities.add(domainClass);
+    for(ManagedType managedType : EntityMetadataRegistry.getGraph(domainClass).getMetamodel().getManagedTypes()) {
+      if(identifiers.contains(managedType.getJavaType().getSimpleName())) {
+        entities.add(managedType.getJavaType());
+      }
+    }
+    return Collections.unmodifiableSet(entities);
+  }
+
+  public static class Region {
+
+    private final long ttl;
+    private final int maxSize;
+    private final ConcurrentCache<String, CachedPage> cache;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Set<Class> entities;
+
+    private Region(long ttl, int maxSize) {
+      this.ttl = ttl;
+      this.maxSize = maxSize;
+      this.cache = new ConcurrentCache<>(maxSize, ttl);
+    }
+
+    /**
+     * @return the page kept for the key, unless it was read before the last
+     * invalidation of the region
+     */
+    public CachedPage get(String key) {
+      CachedPage page = cache.get(key);
+      if(page != null && page.generation != generation.get()) {
+        cache.invalidate(key);
+        return null;
+      }
+      return page;
+    }
+
+    /**
+     * @return the current generation of the region, which changes each time
+     * the region is invalidated
+     */
+    public long getGeneration() {
+      return generation.get();
+    }
+
+    /**
+     * Keeps the page read by the data source, rendered as the given JSON,
+     * unless the region was invalidated after the given generation, since the
+     * page may be stale. The page keeps the generation it was read in, so it
+     * isn't returned by {@link #get(String)} either when the region is
+     * invalidated while it's being kept.
+     *
+     * @return the page kept, or that would have been kept
+     */
+    public CachedPage put(String key, DataSource ds, String jpql, long readGeneration, String content) {
+      if(entities == null) {
+        entities = findEntities(ds.getDomainClass(), jpql);
+      }
+      Page page = ds.getPage();
+      CachedPage cached = new CachedPage(content, page != null ? page.getTotalElements() : null,
+          ds.isTotalEstimated(), ds.getNextCursor(), readGeneration);
+      if(generation.get() == readGeneration) {
+        cache.put(key, cached);
+      }
+      return cached;
+    }
+
+    private void clear() {
+      generation.incrementAndGet();
+      cache.clear();
+    }
+  }
+
+  public static class CachedPage {
+
+    private final String content;
+    private final Long totalElements;
+    private final boolean totalEstimated;
+    private final String nextCursor;
+    private final long generation;
+
+    private CachedPage(String content, Long totalElements, boolean totalEstimated, String nextCursor,
+        long generation) {
+      this.content = content;
+      this.totalElements = totalElements;
+      this.totalEstimated = totalEstimated;
+      this.nextCursor = nextCursor;
+      this.generation = generation;
+    }
+
+    /**
+     * @return the rows of the page rendered as a JSON array
+     */
+    public String getContent() {
+      return content;
+    }
+
+    public Long getTotalElements() {
+      return totalElements;
+    }
+
+    public boolean isTotalEstimated() {
+      return totalEstimated;
+    }
+
+    public String getNextCursor() {
+      return nextCursor;
+    }
+  }
+}
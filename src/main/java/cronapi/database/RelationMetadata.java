@@ -18,12 +18,17 @@ public class RelationMetadata {
   private String id;
   
   public RelationMetadata(EntityMetadata from, Attribute attr, ManagedType to, Attribute associationAttr, ManagedType association) {
+    this(from, attr, to, associationAttr, association, new EntityMetadata(to, false));
+  }
+
+  RelationMetadata(EntityMetadata from, Attribute attr, ManagedType to, Attribute associationAttr, ManagedType association,
+                   EntityMetadata toMetadata) {
     this.from = from;
     this.associationAttr = associationAttr;
     this.association = association;
     this.attr = attr;
     this.to = to;
-    this.toMetadata = new EntityMetadata(to, false);
+    this.toMetadata = toMetadata;
     this.id = "relation:" + attr.getName() + ":" + to.getJavaType().getSimpleName();
   }
   
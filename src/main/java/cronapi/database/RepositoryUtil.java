@@ -1,22 +1,93 @@
 package cronapi.database;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.data.jpa.repository.JpaContext;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.repository.support.Repositories;
 import org.springframework.stereotype.Component;
 
 @Component
-public class RepositoryUtil {
+public class RepositoryUtil implements ApplicationListener<ContextRefreshedEvent> {
   @Autowired
   private JpaContext jpaContext;
-  
+
+  @Autowired
+  private ApplicationContext applicationContext;
+
+  private volatile Repositories repositories;
+
+  private final Map<Class, RepositoryEntry> repositoryByDomain = new ConcurrentHashMap<>();
+
+  private volatile ClassValue<EntityManagerFactory> factories = newFactories();
+
+  private ClassValue<EntityManagerFactory> newFactories() {
+    return new ClassValue<EntityManagerFactory>() {
+      @Override
+      protected EntityManagerFactory computeValue(Class<?> type) {
+        return jpaContext.getEntityManagerByManagedType(type).getEntityManagerFactory();
+      }
+    };
+  }
+
+  /**
+   * Indexes the repository beans once the context is ready, instead of
+   * scanning them on each lookup. The factories resolved from a previous
+   * context are discarded.
+   */
+  @Override
+  public void onApplicationEvent(ContextRefreshedEvent event) {
+    repositories = new Repositories(applicationContext);
+    repositoryByDomain.clear();
+    factories = newFactories();
+  }
+
   public EntityManager getEntityManager(Class clz) {
-    return jpaContext.getEntityManagerByManagedType(clz).getEntityManagerFactory().createEntityManager();
+    return getEntityManagerFactory(clz).createEntityManager();
   }
-  
+
   public EntityManagerFactory getEntityManagerFactory(Class clz) {
-    return jpaContext.getEntityManagerByManagedType(clz).getEntityManagerFactory();
+    return factories.get(clz);
+  }
+
+  /**
+   * @return the repository of the domain class or null when there isn't one
+   */
+  public JpaRepository findRepository(Class domainClass) {
+    RepositoryEntry entry = repositoryByDomain.get(domainClass);
+    if(entry == null) {
+      Repositories current = repositories;
+      if(current == null) {
+        current = new Repositories(applicationContext);
+        repositories = current;
+      }
+
+      JpaRepository repository = null;
+      if(current.hasRepositoryFor(domainClass)) {
+        repository = (JpaRepository)current.getRepositoryFor(domainClass);
+      }
+
+      entry = new RepositoryEntry(repository);
+      repositoryByDomain.put(domainClass, entry);
+    }
+
+    return entry.repository;
+  }
+
+  private static class RepositoryEntry {
+
+    private final JpaRepository repository;
+
+    private RepositoryEntry(JpaRepository repository) {
+      this.repository = repository;
+    }
   }
 }
@@ -7,9 +7,7 @@ import java.util.Set;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 
-import org.springframework.beans.factory.ListableBeanFactory;
 import org.springframework.data.jpa.repository.JpaRepository;
-import org.springframework.data.repository.support.Repositories;
 
 import cronapi.RestClient;
 
@@ -20,13 +18,7 @@ public class TransactionManager {
 	private static RepositoryUtil ru = (RepositoryUtil) ApplicationContextHolder.getContext().getBean("repositoryUtil");
 
 	public static JpaRepository findRepository(Class domainClass) {
-		ListableBeanFactory factory = (ListableBeanFactory) ApplicationContextHolder.getContext();
-		Repositories repositories = new Repositories(factory);
-		if (repositories.hasRepositoryFor(domainClass)) {
-			return (JpaRepository) repositories.getRepositoryFor(domainClass);
-		}
-
-		return null;
+		return ru.findRepository(domainClass);
 	}
 
 	public static EntityManager getEntityManager(Class domainClass) {
@@ -72,6 +64,7 @@ public class TransactionManager {
 				}
 			}
 		}
+		QueryResultCache.afterCommit();
 	}
 
 	public static void rollback(Class domainClass) {
@@ -110,6 +103,7 @@ public class TransactionManager {
 				}
 			}
 		}
+		QueryResultCache.afterCommit();
 	}
 
 	public static void rollback() {
@@ -148,5 +142,6 @@ public class TransactionManager {
 
 		CACHE.set(null);
 		CACHE.remove();
+		QueryResultCache.discardPending();
 	}
 }
@@ -42,16 +42,7 @@ public class Operations {
     File file = null;
     if(!reportName.isNull() || !path.isNull()) {
       ReportService service = new ReportService();
-      ReportFront reportFront = service.getReport(reportName.getObjectAsString());
-      if(params != Var.VAR_NULL && params.size() > 0) {
-        for(Var param : params.getObjectAsList()) {
-          Parameter parameter = new Parameter();
-          parameter.setName(param.getId());
-          parameter.setType(ParameterType.toType(param.getObject().getClass()));
-          parameter.setValue(param.getObjectAsString());
-          reportFront.addParameter(parameter);
-        }
-      }
+      ReportFront reportFront = newReportFront(service, reportName, params);
       file = new File(path.getObjectAsString());
       ReportExport export = service.getReportExport(reportFront, file);
       if(export != null)
@@ -64,5 +55,38 @@ public class Operations {
     }
     return Var.valueOf(file);
   }
+
+  @CronapiMetaData(type = "function", name = "{{generateReportAsync}}", nameTags = { "generateReportAsync",
+      "GerarRelatorioAssincrono" }, description = "{{generateReportAsyncDescription}}", returnType = ObjectType.OBJECT)
+  public static final Var generateReportAsync(@ParamMetaData(blockType = "util_report_list", type = ObjectType.STRING, description = "{{report}}") Var reportName) {
+    return generateReportAsync(reportName, Var.VAR_NULL);
+  }
+
+  /**
+   * Queues the print of the report in the pool of {@link ReportJobs} and
+   * returns the job, whose download URL is filled when it is done.
+   */
+  public static final Var generateReportAsync(Var reportName, Var params) {
+    if(reportName.isNull())
+      throw new RuntimeException("Error without parameters");
+
+    ReportService service = new ReportService();
+    ReportFront reportFront = newReportFront(service, reportName, params);
+    return Var.valueOf(ReportJobs.submit(service, reportFront));
+  }
+
+  private static ReportFront newReportFront(ReportService service, Var reportName, Var params) {
+    ReportFront reportFront = service.getReport(reportName.getObjectAsString());
+    if(params != Var.VAR_NULL && params.size() > 0) {
+      for(Var param : params.getObjectAsList()) {
+        Parameter parameter = new Parameter();
+        parameter.setName(param.getId());
+        parameter.setType(ParameterType.toType(param.getObject().getClass()));
+        parameter.setValue(param.getObjectAsString());
+        reportFront.addParameter(parameter);
+      }
+    }
+    return reportFront;
+  }
   
 }
@@ -0,0 +1,200 @@
+package cronapi.report;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import cronapi.util.ResourceUtil;
+import cronapp.reports.commons.Parameter;
+import cronapp.reports.commons.ParameterType;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JRExpression;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.xml.JRXmlLoader;
+
+/**
+ * Cache of the report resources and of the parameters declared by their
+ * designs, keyed by resource name and last modified time. Reports are read
+ * and parsed once instead of on every print, and the last modified time of a
+ * resource is checked at most once per interval.
+ */
+class ReportCache {
+
+	private static final Logger log = LoggerFactory.getLogger(ReportCache.class);
+
+	private static final Map<String, ReportResource> CACHE = new ConcurrentHashMap<>();
+
+	private static final long CHECK_INTERVAL = Long.getLong("cronapi.reports.checkInterval", 2000);
+
+	static ReportResource get(ClassLoader loader, String reportName) {
+		long now = System.currentTimeMillis();
+		ReportResource resource = CACHE.get(reportName);
+		if (resource != null && now - resource.checked < CHECK_INTERVAL)
+			return resource;
+
+		URL url = loader.getResource(reportName);
+		if (url == null)
+			throw new RuntimeException("File [" + reportName + "] not found.");
+
+		long lastModified = ResourceUtil.getLastModified(url);
+		if (resource == null || resource.lastModified != lastModified) {
+			resource = new ReportResource(reportName, url, lastModified);
+			CACHE.put(reportName, resource);
+		}
+		resource.checked = now;
+		return resource;
+	}
+
+	/**
+	 * Reads, parses and compiles every report design found in the classpath,
+	 * subreports included. The compiled reports are kept by
+	 * {@link ReportCompiler}.
+	 */
+	static void warmUp(ClassLoader loader) {
+		try {
+			List<URL> roots = Collections.list(loader.getResources(""));
+			Resource[] resources = new PathMatchingResourcePatternResolver(loader).getResources("classpath*:**/*.jrxml");
+			for (Resource resource : resources) {
+				String name = toResourceName(resource.getURL(), roots);
+				if (name != null) {
+					try {
+						ReportResource report = get(loader, name);
+						report.getParameters();
+						report.compile();
+					} catch (RuntimeException | JRException e) {
+						log.error("Problems to load report [" + name + "].", e);
+					}
+				}
+			}
+			log.info(CACHE.size() + " reports loaded, " + ReportCompiler.size() + " compiled.");
+		} catch (IOException e) {
+			log.error("Problems to find the reports.", e);
+		}
+	}
+
+	static void clear() {
+		CACHE.clear();
+	}
+
+	static int size() {
+		return CACHE.size();
+	}
+
+	private static String toResourceName(URL url, List<URL> roots) {
+		String path = url.toString();
+		int jarSeparator = path.indexOf("!/");
+		if (jarSeparator > -1)
+			return path.substring(jarSeparator + 2);
+
+		for (URL root : roots) {
+			if (path.startsWith(root.toString()))
+				return path.substring(root.toString().length());
+		}
+		return null;
+	}
+
+	static class ReportResource {
+
+		private final String name;
+		private final long lastModified;
+		private final byte[] content;
+		private volatile List<ParameterInfo> parameters;
+		private volatile long checked;
+
+		private ReportResource(String name, URL url, long lastModified) {
+			this.name = name;
+			this.lastModified = lastModified;
+			try (InputStream inputStream = url.openStream()) {
+				this.content = IOUtils.toByteArray(inputStream);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		InputStream open() {
+			return new ByteArrayInputStream(content);
+		}
+
+		/**
+		 * Compiles the design through JasperCompileManager, the same way the
+		 * prints do, so the compiled report is kept by {@link ReportCompiler}.
+		 */
+		void compile() throws JRException {
+			if (name.contains("jrxml"))
+				JasperCompileManager.compileReport(JRXmlLoader.load(open()));
+		}
+
+		/**
+		 * @return new parameter objects for the user defined parameters of the design
+		 */
+		List<Parameter> newParameters() {
+			List<Parameter> result = new ArrayList<>();
+			for (ParameterInfo info : getParameters()) {
+				Parameter parameter = new Parameter();
+				parameter.setName(info.name);
+				parameter.setType(info.type);
+				parameter.setDescription(info.description);
+				if (info.value != null)
+					parameter.setValue(info.value);
+				result.add(parameter);
+			}
+			return result;
+		}
+
+		private List<ParameterInfo> getParameters() {
+			List<ParameterInfo> result = parameters;
+			if (result == null) {
+				result = new ArrayList<>();
+				if (name.contains("jrxml")) {
+					try {
+						JasperDesign jasperDesign = JRXmlLoader.load(open());
+						List<ParameterInfo> list = result;
+						Stream.of(jasperDesign.getParameters()).filter(jrParameter -> !jrParameter.isSystemDefined())
+								.filter(jrParameter -> !jrParameter.getName().contains("image_"))
+								.filter(jrParameter -> !jrParameter.getName().contains("sub_")).forEach(jrParameter -> {
+									JRExpression expression = jrParameter.getDefaultValueExpression();
+									list.add(new ParameterInfo(jrParameter.getName(),
+											ParameterType.toType(jrParameter.getValueClass()), jrParameter.getDescription(),
+											expression != null ? expression.getText() : null));
+								});
+					} catch (JRException e) {
+						log.error("Problems to make JasperDesign object.");
+						throw new RuntimeException(e);
+					}
+				}
+				result = Collections.unmodifiableList(result);
+				parameters = result;
+			}
+			return result;
+		}
+	}
+
+	private static class ParameterInfo {
+
+		private final String name;
+		private final ParameterType type;
+		private final String description;
+		private final String value;
+
+		private ParameterInfo(String name, ParameterType type, String description, String value) {
+			this.name = name;
+			this.type = type;
+			this.description = description;
+			this.value = value;
+		}
+	}
+}
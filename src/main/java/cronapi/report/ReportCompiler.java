@@ -0,0 +1,152 @@
+package cronapi.report;
+
+import java.lang.reflect.Constructor;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cronapi.Utils;
+import cronapi.util.ConcurrentCache;
+import net.sf.jasperreports.crosstabs.JRCrosstab;
+import net.sf.jasperreports.engine.DefaultJasperReportsContext;
+import net.sf.jasperreports.engine.JRDataset;
+import net.sf.jasperreports.engine.JRException;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.JasperReportsContext;
+import net.sf.jasperreports.engine.design.JRCompiler;
+import net.sf.jasperreports.engine.design.JRJavacCompiler;
+import net.sf.jasperreports.engine.design.JRJdk13Compiler;
+import net.sf.jasperreports.engine.design.JRJdtCompiler;
+import net.sf.jasperreports.engine.design.JasperDesign;
+import net.sf.jasperreports.engine.fill.JREvaluator;
+import net.sf.jasperreports.engine.util.JRClassLoader;
+import net.sf.jasperreports.engine.xml.JRXmlWriter;
+
+/**
+ * Compiler of the Java report designs that keeps the compiled reports. The
+ * designs are compiled by the cronapp-reports ReportManager, which doesn't
+ * accept an already compiled report, through JasperCompileManager; this
+ * compiler is registered there for the java language, so every compile,
+ * subreports included, is looked up by the content of the design and only
+ * delegated to the default compiler when the design is new or changed.
+ */
+public class ReportCompiler implements JRCompiler {
+
+	private static final Logger log = LoggerFactory.getLogger(ReportCompiler.class);
+
+	private static final String PROPERTY = "net.sf.jasperreports.compiler.java";
+
+	private static final ConcurrentCache<String, JasperReport> CACHE = new ConcurrentCache<>(
+			Integer.getInteger("cronapi.reports.compiledCacheSize", 200));
+
+	private static final Pattern UUID_ATTRIBUTE = Pattern.compile(" uuid=\"[^\"]*\"");
+
+	private static volatile String delegateClass;
+
+	private final JasperReportsContext context;
+
+	public ReportCompiler(JasperReportsContext context) {
+		this.context = context;
+	}
+
+	/**
+	 * Registers the compiler for the java designs. A compiler already
+	 * configured for the language is kept as the delegate.
+	 */
+	static synchronized void register() {
+		DefaultJasperReportsContext context = DefaultJasperReportsContext.getInstance();
+		String current = context.getProperty(PROPERTY);
+		if (!ReportCompiler.class.getName().equals(current)) {
+			delegateClass = current;
+			context.setProperty(PROPERTY, ReportCompiler.class.getName());
+		}
+	}
+
+	@Override
+	public JasperReport compileReport(JasperDesign design) throws JRException {
+		String key = getKey(design);
+		JasperReport report = key != null ? CACHE.get(key) : null;
+		if (report == null) {
+			report = getDelegate().compileReport(design);
+			if (key != null)
+				CACHE.put(key, report);
+		}
+		return report;
+	}
+
+	@Override
+	public JREvaluator loadEvaluator(JasperReport jasperReport) throws JRException {
+		return getDelegate().loadEvaluator(jasperReport);
+	}
+
+	@Override
+	public JREvaluator loadEvaluator(JasperReport jasperReport, JRDataset dataset) throws JRException {
+		return getDelegate().loadEvaluator(jasperReport, dataset);
+	}
+
+	@Override
+	public JREvaluator loadEvaluator(JasperReport jasperReport, JRCrosstab crosstab) throws JRException {
+		return getDelegate().loadEvaluator(jasperReport, crosstab);
+	}
+
+	static void clear() {
+		CACHE.clear();
+	}
+
+	static int size() {
+		return CACHE.size();
+	}
+
+	/**
+	 * @return the design name with the hash of its XML, or null when the
+	 *         design can't be written. The element UUIDs are left out,
+	 *         because the loader generates new ones on each load when the
+	 *         file doesn't have them.
+	 */
+	private static String getKey(JasperDesign design) {
+		try {
+			String xml = UUID_ATTRIBUTE.matcher(JRXmlWriter.writeReport(design, "UTF-8")).replaceAll("");
+			return design.getName() + ":" + Utils.encodeMD5(xml);
+		} catch (Exception e) {
+			log.warn("Problems to identify the design [" + design.getName() + "], it won't be cached.", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Creates the compiler JasperReports would use when this one isn't
+	 * registered.
+	 */
+	private JRCompiler getDelegate() throws JRException {
+		String className = delegateClass;
+		if (className == null) {
+			if (isAvailable("org.eclipse.jdt.internal.compiler.Compiler"))
+				return new JRJdtCompiler(context);
+			if (isAvailable("com.sun.tools.javac.Main"))
+				return new JRJdk13Compiler(context);
+			return new JRJavacCompiler(context);
+		}
+
+		try {
+			Class<?> clazz = JRClassLoader.loadClassForName(className);
+			try {
+				Constructor<?> constructor = clazz.getConstructor(JasperReportsContext.class);
+				return (JRCompiler) constructor.newInstance(context);
+			} catch (NoSuchMethodException e) {
+				return (JRCompiler) clazz.newInstance();
+			}
+		} catch (ReflectiveOperationException e) {
+			throw new JRException(e);
+		}
+	}
+
+	private static boolean isAvailable(String className) {
+		try {
+			JRClassLoader.loadClassForRealName(className);
+			return true;
+		} catch (ClassNotFoundException e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package cronapi.report;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import org.eclipse.persistence.config.PersistenceUnitProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.orm.jpa.EntityManagerFactoryInfo;
+import org.springframework.stereotype.Component;
+
+import cronapi.database.ApplicationContextHolder;
+
+/**
+ * EntityManagerFactories used by the reports, one per persistence unit. The
+ * factories already created by the application are reused; otherwise a
+ * factory is created once and closed when the application stops.
+ */
+@Component
+public class ReportEntityManagerFactories implements DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ReportEntityManagerFactories.class);
+
+	private static final Map<String, FactoryEntry> FACTORIES = new ConcurrentHashMap<>();
+
+	public static EntityManagerFactory get(String persistenceUnit) {
+		return FACTORIES.computeIfAbsent(persistenceUnit, ReportEntityManagerFactories::create).factory;
+	}
+
+	private static FactoryEntry create(String persistenceUnit) {
+		EntityManagerFactory shared = findApplicationFactory(persistenceUnit);
+		if (shared != null)
+			return new FactoryEntry(shared, false);
+
+		log.info("Creating EntityManagerFactory for persistence unit [" + persistenceUnit + "] used by reports.");
+		HashMap<String, Object> properties = new HashMap<>();
+		properties.put(PersistenceUnitProperties.JTA_DATASOURCE, persistenceUnit);
+		return new FactoryEntry(Persistence.createEntityManagerFactory(persistenceUnit, properties), true);
+	}
+
+	private static EntityManagerFactory findApplicationFactory(String persistenceUnit) {
+		if (ApplicationContextHolder.getContext() == null)
+			return null;
+
+		for (EntityManagerFactory factory : ApplicationContextHolder.getContext()
+				.getBeansOfType(EntityManagerFactory.class).values()) {
+			if (factory instanceof EntityManagerFactoryInfo
+					&& persistenceUnit.equals(((EntityManagerFactoryInfo) factory).getPersistenceUnitName()))
+				return factory;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of factories in use by the reports
+	 */
+	public static int getFactoryCount() {
+		return FACTORIES.size();
+	}
+
+	public static Map<String, Object> getStats() {
+		int created = 0;
+		for (FactoryEntry entry : FACTORIES.values()) {
+			if (entry.owned)
+				created++;
+		}
+
+		Map<String, Object> stats = new LinkedHashMap<>();
+		stats.put("factories", FACTORIES.size());
+		stats.put("shared", FACTORIES.size() - created);
+		stats.put("created", created);
+		return stats;
+	}
+
+	/**
+	 * Closes the factories created for the reports. The factories of the
+	 * application are closed by Spring.
+	 */
+	public static void closeAll() {
+		for (FactoryEntry entry : FACTORIES.values()) {
+			if (entry.owned && entry.factory.isOpen()) {
+				try {
+					entry.factory.close();
+				} catch (RuntimeException e) {
+					log.error("Problems to close the EntityManagerFactory.", e);
+				}
+			}
+		}
+		FACTORIES.clear();
+	}
+
+	@Override
+	public void destroy() {
+		closeAll();
+	}
+
+	private static class FactoryEntry {
+
+		private final EntityManagerFactory factory;
+		private final boolean owned;
+
+		private FactoryEntry(EntityManagerFactory factory, boolean owned) {
+			this.factory = factory;
+			this.owned = owned;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package cronapi.report;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * State of a report printed in background by {@link ReportJobs}. The fill
+ * runs inside the reports library, which doesn't report how far it got, so
+ * only the status is exposed.
+ */
+public class ReportJob {
+
+	public enum Status {
+		QUEUED, RUNNING, DONE, ERROR
+	}
+
+	private final String id;
+	private final String reportName;
+	private final String owner;
+	private final long created = System.currentTimeMillis();
+	private volatile long finished;
+	private volatile Status status = Status.QUEUED;
+	private volatile String downloadUrl;
+	private volatile String error;
+
+	ReportJob(String id, String reportName, String owner) {
+		this.id = id;
+		this.reportName = reportName;
+		this.owner = owner;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getReportName() {
+		return reportName;
+	}
+
+	@JsonIgnore
+	public String getOwner() {
+		return owner;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getFinished() {
+		return finished;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public String getDownloadUrl() {
+		return downloadUrl;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	void running() {
+		this.status = Status.RUNNING;
+	}
+
+	void done(String downloadUrl) {
+		this.downloadUrl = downloadUrl;
+		this.finished = System.currentTimeMillis();
+		this.status = Status.DONE;
+	}
+
+	void failed(String error) {
+		this.error = error;
+		this.finished = System.currentTimeMillis();
+		this.status = Status.ERROR;
+	}
+}
@@ -0,0 +1,131 @@
+package cronapi.report;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.core.userdetails.User;
+
+import cronapi.ErrorResponse;
+import cronapi.RestClient;
+import cronapi.i18n.Messages;
+import cronapi.rest.DownloadREST;
+import cronapi.util.LRUCache;
+import cronapp.reports.ReportExport;
+import cronapp.reports.commons.ReportFront;
+
+/**
+ * Prints reports in a bounded pool of worker threads, so long reports don't
+ * hold the request threads. The result is a temporary PDF file handed out by
+ * {@link DownloadREST}. The pool size, the queue size and how long a job is
+ * kept are set by the system properties cronapi.reports.async.threads,
+ * cronapi.reports.async.queue and cronapi.reports.async.expires (ms).
+ */
+public class ReportJobs {
+
+	private static final Logger log = LoggerFactory.getLogger(ReportJobs.class);
+
+	private static final int THREADS = Integer.getInteger("cronapi.reports.async.threads", 2);
+	private static final int QUEUE_SIZE = Integer.getInteger("cronapi.reports.async.queue", 50);
+	private static final int EXPIRES = Integer.getInteger("cronapi.reports.async.expires", 1000 * 60 * 60);
+
+	/**
+	 * Jobs queued or running. They only move to the LRU of finished jobs when
+	 * they end, so they can't be evicted while the client is waiting.
+	 */
+	private static final Map<String, ReportJob> ACTIVE = new ConcurrentHashMap<>();
+
+	private static final LRUCache<String, ReportJob> JOBS = new LRUCache<>(1000, EXPIRES);
+
+	private static final ThreadPoolExecutor POOL;
+
+	static {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = runnable -> {
+			Thread thread = new Thread(runnable, "cronapi-report-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		POOL = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE),
+				factory);
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Queues the print of the report for the current user.
+	 */
+	public static ReportJob submit(ReportService service, ReportFront reportFront) {
+		ReportJob job = new ReportJob(UUID.randomUUID().toString(), reportFront.getReportName(), getCurrentUser());
+		Runnable print = RestClient.getContextRunnable(() -> print(service, reportFront, job), false);
+		ACTIVE.put(job.getId(), job);
+		try {
+			POOL.execute(print);
+		} catch (RejectedExecutionException e) {
+			ACTIVE.remove(job.getId());
+			job.failed(Messages.getString("reportQueueFull"));
+			throw new RuntimeException(Messages.getString("reportQueueFull"), e);
+		}
+		return job;
+	}
+
+	/**
+	 * @return the job when it exists and belongs to the current user, otherwise null
+	 */
+	public static ReportJob get(String id) {
+		ReportJob job = ACTIVE.get(id);
+		if (job == null)
+			job = JOBS.get(id);
+		if (job == null)
+			return null;
+
+		String user = getCurrentUser();
+		if (job.getOwner() == null ? user != null : !job.getOwner().equals(user))
+			return null;
+
+		return job;
+	}
+
+	/**
+	 * @return the number of jobs waiting for a free worker
+	 */
+	public static int getQueued() {
+		return POOL.getQueue().size();
+	}
+
+	public static int getRunning() {
+		return POOL.getActiveCount();
+	}
+
+	private static void print(ReportService service, ReportFront reportFront, ReportJob job) {
+		try {
+			job.running();
+			File file = DownloadREST.getTempFile(UUID.randomUUID().toString() + ".pdf");
+			ReportExport export = service.getReportExport(reportFront, file);
+			if (export == null)
+				throw new RuntimeException("Error while exporting report [" + reportFront.getReportName() + "]");
+
+			export.exportReportToPdfFile();
+			job.done(DownloadREST.getDownloadUrl(file));
+		} catch (Exception e) {
+			log.error("Problems to print report [" + reportFront.getReportName() + "].", e);
+			job.failed(ErrorResponse.getExceptionMessage(e, "POST"));
+		}
+		// A validade do job conta a partir do término
+		JOBS.put(job.getId(), job);
+		ACTIVE.remove(job.getId());
+	}
+
+	private static String getCurrentUser() {
+		User user = RestClient.getRestClient().getUser();
+		return user != null ? user.getUsername() : null;
+	}
+}
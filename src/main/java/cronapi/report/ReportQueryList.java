@@ -0,0 +1,137 @@
+package cronapi.report;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import cronapi.database.QueryCounter;
+import cronapi.database.QueryCursor;
+
+/**
+ * Read only list over the result of a report JPQL. The rows are read with a
+ * forward only cursor while the report is filled and the persistence context
+ * is cleared periodically, so the memory used doesn't grow with the number of
+ * rows. Random access reads the rows in pages of {@link QueryCursor#FETCH_SIZE}.
+ * Each cursor and the pages have their own EntityManager, so clearing one
+ * never detaches the rows of another. The list must be closed after the print.
+ */
+public class ReportQueryList extends AbstractList<Object> implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(ReportQueryList.class);
+
+	private final EntityManagerFactory factory;
+	private final String jpql;
+	private final Map<String, Object> parameters;
+	private final List<QueryCursor> cursors = new ArrayList<>();
+	private final List<EntityManager> entityManagers = new ArrayList<>();
+
+	private EntityManager pageEntityManager;
+	private Integer size;
+	private int pageStart = -1;
+	private List<?> page = Collections.emptyList();
+
+	public ReportQueryList(EntityManagerFactory factory, String jpql, Map<String, Object> parameters) {
+		this.factory = factory;
+		this.jpql = jpql;
+		this.parameters = parameters;
+	}
+
+	private EntityManager createEntityManager() {
+		EntityManager entityManager = factory.createEntityManager();
+		entityManagers.add(entityManager);
+		return entityManager;
+	}
+
+	private EntityManager getPageEntityManager() {
+		if (pageEntityManager == null)
+			pageEntityManager = createEntityManager();
+		return pageEntityManager;
+	}
+
+	private Query createQuery(EntityManager entityManager, String jpql) {
+		Query query = entityManager.createQuery(jpql);
+
+		Set<String> parameterNames = query.getParameters().stream().map(javax.persistence.Parameter::getName)
+				.collect(Collectors.toSet());
+		for (Map.Entry<String, Object> item : parameters.entrySet()) {
+			if (parameterNames.contains(item.getKey()))
+				query.setParameter(item.getKey(), item.getValue());
+		}
+		return query;
+	}
+
+	@Override
+	public Iterator<Object> iterator() {
+		try {
+			EntityManager entityManager = createEntityManager();
+			QueryCursor cursor = QueryCursor.open(entityManager, createQuery(entityManager, jpql),
+					QueryCursor.FETCH_SIZE, QueryCursor.CLEAR_INTERVAL);
+			cursors.add(cursor);
+			return cursor;
+		} catch (IllegalArgumentException e) {
+			log.error(e.getMessage());
+			return Collections.emptyIterator();
+		}
+	}
+
+	@Override
+	public Object get(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index);
+
+		if (index < pageStart || index >= pageStart + page.size()) {
+			EntityManager entityManager = getPageEntityManager();
+			entityManager.clear();
+			pageStart = index - (index % QueryCursor.FETCH_SIZE);
+			page = createQuery(entityManager, jpql).setFirstResult(pageStart).setMaxResults(QueryCursor.FETCH_SIZE).getResultList();
+		}
+		return page.get(index - pageStart);
+	}
+
+	@Override
+	public int size() {
+		if (size == null) {
+			String countJpql = QueryCounter.toCountJpql(jpql);
+			try {
+				if (countJpql != null) {
+					size = ((Number) createQuery(getPageEntityManager(), countJpql).getSingleResult()).intValue();
+				} else {
+					int count = 0;
+					for (Iterator<Object> iterator = iterator(); iterator.hasNext(); iterator.next())
+						count++;
+					size = count;
+				}
+			} catch (IllegalArgumentException e) {
+				log.error(e.getMessage());
+				size = 0;
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public void close() {
+		for (QueryCursor cursor : cursors)
+			cursor.close();
+		cursors.clear();
+		for (EntityManager entityManager : entityManagers) {
+			if (entityManager.isOpen())
+				entityManager.close();
+		}
+		entityManagers.clear();
+		pageEntityManager = null;
+		page = Collections.emptyList();
+	}
+}
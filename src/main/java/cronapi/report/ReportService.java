@@ -3,26 +3,24 @@ package cronapi.report;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+import javax.annotation.PostConstruct;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.persistence.EntityManager;
-import javax.persistence.EntityManagerFactory;
-import javax.persistence.Persistence;
 import javax.persistence.Query;
 import javax.sql.DataSource;
 
-import org.eclipse.persistence.config.PersistenceUnitProperties;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
@@ -33,68 +31,114 @@ import cronapp.reports.ReportExport;
 import cronapp.reports.ReportManager;
 import cronapp.reports.commons.Functions;
 import cronapp.reports.commons.Parameter;
-import cronapp.reports.commons.ParameterType;
 import cronapp.reports.commons.ReportFront;
 import cronapp.reports.j4c.dataset.J4CDataset;
 import cronapp.reports.j4c.dataset.J4CEntity;
-import net.sf.jasperreports.engine.JRException;
-import net.sf.jasperreports.engine.JRExpression;
-import net.sf.jasperreports.engine.design.JasperDesign;
-import net.sf.jasperreports.engine.xml.JRXmlLoader;
 
 @Service
 public class ReportService {
 
 	private static final Logger log = LoggerFactory.getLogger(ReportService.class);
 
+	/**
+	 * When true, the rows of the JPQL datasets are read with a cursor while the
+	 * report is filled instead of being loaded all at once. It can be turned off
+	 * with the system property cronapi.reports.streaming=false.
+	 */
+	private static final boolean STREAMING = Boolean.parseBoolean(System.getProperty("cronapi.reports.streaming", "true"));
+
 	private final ClassLoader loader;
 
 	public ReportService() {
 		this.loader = Thread.currentThread().getContextClassLoader();
+		ReportCompiler.register();
+	}
+
+	/**
+	 * Loads and compiles every report of the classpath in background when the
+	 * system property cronapi.reports.warmup is true.
+	 */
+	@PostConstruct
+	public void warmUp() {
+		if (Boolean.getBoolean("cronapi.reports.warmup")) {
+			Thread thread = new Thread(() -> ReportCache.warmUp(loader), "cronapi-reports-warmup");
+			thread.setDaemon(true);
+			thread.start();
+		}
 	}
 
 	private InputStream getInputStream(String reportName) {
-		InputStream inputStream = loader.getResourceAsStream(reportName);
-		if (inputStream == null)
-			throw new RuntimeException("File [" + reportName + "] not found.");
-		return inputStream;
+		return ReportCache.get(loader, reportName).open();
 	}
 
 	public ReportFront getReport(String reportName) {
 		ReportFront reportResult = new ReportFront(reportName);
-		try {
-			if (reportName.contains("jrxml")) {
-				log.info("Report in design mode, build the parameters...");
-				InputStream inputStream = this.getInputStream(reportName);
-				JasperDesign jasperDesign = JRXmlLoader.load(inputStream);
-				Stream.of(jasperDesign.getParameters()).filter(jrParameter -> !jrParameter.isSystemDefined())
-						.filter(jrParameter -> !jrParameter.getName().contains("image_"))
-						.filter(jrParameter -> !jrParameter.getName().contains("sub_")).forEach(jrParameter -> {
-							Parameter parameter = new Parameter();
-							parameter.setName(jrParameter.getName());
-							parameter.setType(ParameterType.toType(jrParameter.getValueClass()));
-							parameter.setDescription(jrParameter.getDescription());
-							JRExpression expression = jrParameter.getDefaultValueExpression();
-							if (expression != null)
-								parameter.setValue(expression.getText());
-							reportResult.addParameter(parameter);
-						});
-			}
-		} catch (JRException e) {
-			log.error("Problems to make JasperDesign object.");
-			throw new RuntimeException(e);
+		if (reportName.contains("jrxml")) {
+			log.info("Report in design mode, build the parameters...");
+			for (Parameter parameter : ReportCache.get(loader, reportName).newParameters())
+				reportResult.addParameter(parameter);
 		}
 		return reportResult;
 	}
 
 	public String getPDFAsFile(ReportFront reportFront) {
 		ReportExport result = this.getReportExport(reportFront);
-		result.exportReportToPdfFile();
 		if (result == null)
 			return "";
+		result.exportReportToPdfFile();
 		return DownloadREST.getDownloadUrl(new File(result.getTargetFile()));
 	}
 
+	/**
+	 * Exports the report as PDF to its temporary file and copies the file to
+	 * the output, so the document is never fully loaded in memory. The
+	 * temporary file is removed afterwards.
+	 */
+	public void writePDF(ReportFront reportFront, OutputStream output) {
+		ReportExport result = this.getReportExport(reportFront);
+		if (result == null)
+			return;
+		File file = new File(result.getTargetFile());
+		try {
+			result.exportReportToPdfFile();
+			Files.copy(file.toPath(), output);
+			output.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (file.exists())
+				file.delete();
+		}
+	}
+
+	/**
+	 * Exports the report as XLS to the output. ReportExport only exposes the
+	 * XLS export as a byte array, so the document is written at once. The
+	 * report is printed to its own temporary file, removed afterwards.
+	 */
+	public void writeXLS(ReportFront reportFront, OutputStream output) {
+		File file;
+		try {
+			file = DownloadREST.getTempFile(UUID.randomUUID().toString() + ".xls");
+			file.createNewFile();
+		} catch (IOException e) {
+			log.error("Problems to make the temporary report file.");
+			throw new RuntimeException(e);
+		}
+		try {
+			ReportExport result = this.getReportExport(reportFront, file);
+			if (result == null)
+				return;
+			output.write(result.toXLS());
+			output.flush();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (file.exists())
+				file.delete();
+		}
+	}
+
 	public byte[] getPDF(ReportFront reportFront) {
 		ReportExport result = this.getReportExport(reportFront);
 		if (result == null)
@@ -150,32 +194,42 @@ public class ReportService {
 					String jpql = entity.getJpql();
 					if (Functions.isExists(jpql)) {
 						String persistenceUnit = dataset.getPersistenceUnitName();
-						EntityManager entityManager = this.getEntityManager(persistenceUnit);
-
 						Map<String, Object> printParameters = printDesign.getPrintParameters();
 
-						Query queryObject = entityManager.createQuery(jpql);
-
-						Set<javax.persistence.Parameter<?>> objectParameters = queryObject.getParameters();
-						Set<String> parameterNames = objectParameters.stream().map(javax.persistence.Parameter::getName)
-								.collect(Collectors.toSet());
-
-						Set<Map.Entry<String, Object>> entrySet = printParameters.entrySet();
-						for (Map.Entry<String, Object> item : entrySet) {
-							String name = item.getKey();
-							if (parameterNames.contains(name)) {
-								Object value = item.getValue();
-								queryObject.setParameter(name, value);
+						if (STREAMING) {
+							try (ReportQueryList resultList = new ReportQueryList(
+									ReportEntityManagerFactories.get(persistenceUnit), jpql, printParameters)) {
+								return printDesign.print(resultList);
 							}
 						}
 
-						List resultList = Collections.emptyList();
+						EntityManager entityManager = this.getEntityManager(persistenceUnit);
 						try {
-							resultList = queryObject.getResultList();
-						} catch (IllegalArgumentException e) {
-							log.error(e.getMessage());
+							Query queryObject = entityManager.createQuery(jpql);
+
+							Set<javax.persistence.Parameter<?>> objectParameters = queryObject.getParameters();
+							Set<String> parameterNames = objectParameters.stream().map(javax.persistence.Parameter::getName)
+									.collect(Collectors.toSet());
+
+							Set<Map.Entry<String, Object>> entrySet = printParameters.entrySet();
+							for (Map.Entry<String, Object> item : entrySet) {
+								String name = item.getKey();
+								if (parameterNames.contains(name)) {
+									Object value = item.getValue();
+									queryObject.setParameter(name, value);
+								}
+							}
+
+							List resultList = Collections.emptyList();
+							try {
+								resultList = queryObject.getResultList();
+							} catch (IllegalArgumentException e) {
+								log.error(e.getMessage());
+							}
+							result = printDesign.print(resultList);
+						} finally {
+							entityManager.close();
 						}
-						result = printDesign.print(resultList);
 					}
 				}
 			}
@@ -188,10 +242,7 @@ public class ReportService {
 	}
 
 	private EntityManager getEntityManager(String persistenceUnit) {
-		HashMap<String, Object> properties = new HashMap<>();
-		properties.put(PersistenceUnitProperties.JTA_DATASOURCE, persistenceUnit);
-		EntityManagerFactory managerFactory = Persistence.createEntityManagerFactory(persistenceUnit, properties);
-		return managerFactory.createEntityManager();
+		return ReportEntityManagerFactories.get(persistenceUnit).createEntityManager();
 	}
 
 	private Connection getConnection(String datasource) {
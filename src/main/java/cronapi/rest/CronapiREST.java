@@ -1,9 +1,12 @@
 package cronapi.rest;
 
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -18,11 +21,14 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.gson.JsonObject;
 
 import cronapi.ErrorResponse;
@@ -35,9 +41,16 @@ import cronapi.Var;
 import cronapi.database.DataSource;
 import cronapi.database.DataSourceFilter;
 import cronapi.database.EntityMetadata;
+import cronapi.database.QueryCounter.CountMode;
+import cronapi.database.QueryResultCache;
 import cronapi.database.TenantService;
 import cronapi.database.TransactionManager;
+import cronapi.i18n.Messages;
+import cronapi.report.ReportEntityManagerFactories;
+import cronapi.report.ReportJobs;
 import cronapi.rest.CronapiREST.TranslationPath;
+import cronapi.rest.security.Authorization;
+import cronapi.util.BlocklyMetrics;
 import cronapi.util.SecurityUtil;
 import cronapi.util.StorageService;
 import cronapi.util.StorageServiceFileObject;
@@ -56,6 +69,9 @@ public class CronapiREST {
 
   @Autowired
   private TenantService tenantService;
+
+  @Autowired
+  private ObjectMapper objectMapper;
   
   private int paramBlockly;
 
@@ -155,6 +171,26 @@ public class CronapiREST {
     return new ResponseEntity<EntityMetadata>(data, HttpStatus.OK);
   }
 
+  private void setPageOptions(DataSource ds) {
+    ds.setCountMode(CountMode.fromString(request.getParameter("count")));
+    ds.setCursor(request.getParameter("cursor"));
+  }
+
+  private void setPageHeaders(DataSource ds) {
+    setPageHeaders(ds.getCountMode(), ds.getPage() != null ? ds.getPage().getTotalElements() : null,
+        ds.isTotalEstimated(), ds.getNextCursor());
+  }
+
+  private void setPageHeaders(CountMode countMode, Long totalElements, boolean totalEstimated, String nextCursor) {
+    if (countMode != CountMode.NONE && totalElements != null) {
+      response.setHeader("X-Total-Count", String.valueOf(totalElements));
+      response.setHeader("X-Total-Count-Estimated", String.valueOf(totalEstimated));
+    }
+    if (nextCursor != null) {
+      response.setHeader("X-Next-Cursor", nextCursor);
+    }
+  }
+
   @RequestMapping(method = RequestMethod.GET, value = "/crud/{entity}/**")
   public HttpEntity<Object> crudGet(@PathVariable("entity") String entity, Pageable pageable) throws Exception {
     RestResult data = runIntoTransaction(() -> {
@@ -171,7 +207,9 @@ public class CronapiREST {
           return Var.valueOf(ds.getObject());
         } else {
           ds.setDataSourceFilter(translationPath.filter);
+          setPageOptions(ds);
           ds.filter(null, page, translationPath.params);
+          setPageHeaders(ds);
         }
       }
       else {
@@ -182,7 +220,9 @@ public class CronapiREST {
           return Var.valueOf(ds.getObject());
         } else {
           ds.setDataSourceFilter(translationPath.filter);
+          setPageOptions(ds);
           ds.filterByRelation(translationPath.refId, page, translationPath.params);
+          setPageHeaders(ds);
         }
       }
 
@@ -266,7 +306,7 @@ public class CronapiREST {
       JsonObject query = QueryManager.getQuery(id);
       QueryManager.checkSecurity(query, "GET");
 
-      if (!QueryManager.getType(query).equals("blockly")) {
+      if (!QueryManager.compile(query).isBlockly()) {
         DataSource ds = new DataSource(query);
 
         ds.insert();
@@ -295,7 +335,7 @@ public class CronapiREST {
       JsonObject query = QueryManager.getQuery(id);
       QueryManager.checkSecurity(query, "GET");
 
-      if (QueryManager.getType(query).equals("blockly")) {
+      if (QueryManager.compile(query).isBlockly()) {
         TranslationPath translationPath = translatePathVars(id);
         return QueryManager.executeBlockly(query, "GET", translationPath.params).getObjectAsPOJOList();
       } else {
@@ -310,11 +350,34 @@ public class CronapiREST {
 
         List<Var> params = Utils.getParamsAndExecuteBlockParams(query, translationPath);
         ds.setDataSourceFilter(translationPath.filter);
+        setPageOptions(ds);
+
+        QueryResultCache.Region cache = QueryResultCache.getRegion(id, query);
+        String cacheKey = null;
+        long cacheGeneration = 0;
+        if (cache != null) {
+          cacheKey = QueryResultCache.key(id, params, request.getQueryString(), page);
+          QueryResultCache.CachedPage cached = cache.get(cacheKey);
+          if (cached != null) {
+            setPageHeaders(ds.getCountMode(), cached.getTotalElements(), cached.isTotalEstimated(),
+                cached.getNextCursor());
+            return Var.valueOf(cached);
+          }
+          cacheGeneration = cache.getGeneration();
+        }
+
         ds.filter(jpql, page, params.toArray(new Var[0]));
+        setPageHeaders(ds);
 
         QueryManager.addCalcFields(query, ds);
         QueryManager.executeNavigateEvent(query, ds);
         QueryManager.checkFieldSecurity(query, ds, "GET");
+        QueryManager.evaluateCalcFields(query, ds, ds.getPage().getContent());
+
+        if (cache != null) {
+          String content = objectMapper.writeValueAsString(ds.getPage().getContent());
+          return Var.valueOf(cache.put(cacheKey, ds, jpql, cacheGeneration, content));
+        }
 
         return Var.valueOf(ds.getPage());
       }
@@ -323,6 +386,11 @@ public class CronapiREST {
     if (data.getValue().getObject() instanceof Page) {
       Page page = (Page) data.getValue().getObject();
       return new ResponseEntity<List>(page.getContent(), HttpStatus.OK);
+    } else if (data.getValue().getObject() instanceof QueryResultCache.CachedPage) {
+      HttpHeaders headers = new HttpHeaders();
+      headers.setContentType(MediaType.APPLICATION_JSON_UTF8);
+      QueryResultCache.CachedPage cached = (QueryResultCache.CachedPage) data.getValue().getObject();
+      return new ResponseEntity<String>(cached.getContent(), headers, HttpStatus.OK);
     } else {
       return new ResponseEntity<Var>(data.getValue(), HttpStatus.OK);
     }
@@ -338,37 +406,7 @@ public class CronapiREST {
 
       RestBody data = RestBody.parseBody(rawData, isFromDataSource);
 
-      QueryManager.checkFieldSecurity(query, data, "POST");
-
-      Var entity =  Var.valueOf(data.getEntityData());
-
-      RestClient.getRestClient().setRawBody(entity);
-      RestClient.getRestClient().setBody(data);
-
-      if (QueryManager.getType(query).equals("blockly")) {
-        TranslationPath translationPath = translatePathVars(id);
-
-        Var[] params = (Var[])ArrayUtils.addAll(new Var[] {entity}, translationPath.params);
-        QueryManager.executeEvent(query, entity, "beforeInsert");
-        Var inserted = QueryManager.executeBlockly(query, "POST", params);
-        QueryManager.executeEvent(query, entity, "afterInsert");
-
-        return inserted.getPOJO();
-      } else {
-        DataSource ds = new DataSource(query);
-        
-        ds.insert(entity.getObject());
-
-        QueryManager.addDefaultValues(query, Var.valueOf(ds), true);
-
-        QueryManager.executeEvent(query, ds.getObject(), "beforeInsert");
-        Object inserted = ds.save(false);
-        QueryManager.executeEvent(query, ds.getObject(), "afterInsert");
-        QueryManager.checkFieldSecurity(query, ds, "GET");
-        QueryManager.addCalcFields(query, ds);
-
-        return Var.valueOf(inserted);
-      }
+      return queryInsert(query, data, translatePathVars(id).params);
     });
 
     if (isFromDataSource) {
@@ -387,33 +425,7 @@ public class CronapiREST {
 
       RestBody data = RestBody.parseBody(rawData, isFromDataSource);
 
-      QueryManager.checkFieldSecurity(query, data, "PUT");
-
-      Var entity =  Var.valueOf(data.getEntityData());
-      RestClient.getRestClient().setRawBody(entity);
-      RestClient.getRestClient().setBody(data);
-
-      if (QueryManager.getType(query).equals("blockly")) {
-        TranslationPath translationPath = translatePathVars(id);
-
-        Var[] params = (Var[])ArrayUtils.addAll(new Var[] {entity}, translationPath.params);
-        QueryManager.executeEvent(query, entity, "beforeUpdate");
-        Var modified = QueryManager.executeBlockly(query, "PUT", params);
-        QueryManager.executeEvent(query, entity, "beforeUpdate");
-
-        return modified.getPOJO();
-      } else {
-        DataSource ds = new DataSource(query);
-
-        ds.filter(entity, null);
-        QueryManager.executeEvent(query, ds.getObject(), "beforeUpdate");
-        ds.update(entity);
-        Var saved = Var.valueOf(ds.save());
-        QueryManager.executeEvent(query, ds.getObject(), "afterUpdate");
-        QueryManager.checkFieldSecurity(query, ds, "GET");
-        QueryManager.addCalcFields(query, ds);
-        return saved;
-      }
+      return queryUpdate(query, data, translatePathVars(id).params);
     });
 
     if (isFromDataSource) {
@@ -430,20 +442,11 @@ public class CronapiREST {
       JsonObject query = QueryManager.getQuery(id);
       QueryManager.checkSecurity(query, "DELETE");
 
-      if (QueryManager.getType(query).equals("blockly")) {
-        TranslationPath translationPath = translatePathVars(id);
-
-        QueryManager.executeEvent(query, "beforeDelete", translationPath.params);
-        QueryManager.executeBlockly(query, "DELETE", translationPath.params);
-        QueryManager.executeEvent(query, "afterDelete", translationPath.params);
+      if (QueryManager.compile(query).isBlockly()) {
+        queryRemove(query, translatePathVars(id).params, null);
       } else {
-        TranslationPath translationPath = translatePathVars(id, query.getAsJsonArray("queryParamsValues").size(), -1);
-
-        DataSource ds = new DataSource(query);
-        ds.filter(null, null, translationPath.params);
-        QueryManager.executeEvent(query, ds.getObject(), "beforeDelete");
-        ds.delete();
-        QueryManager.executeEvent(query, ds.getObject(), "afterDelete");
+        TranslationPath translationPath = translatePathVars(id, QueryManager.compile(query).getParams().size(), -1);
+        queryRemove(query, translationPath.params, null);
       }
       return Var.VAR_NULL;
     });
@@ -454,8 +457,255 @@ public class CronapiREST {
       return result.getValue();
     }
   }
+
+  private Var queryInsert(JsonObject query, RestBody data, Var[] pathParams) throws Exception {
+    QueryManager.checkFieldSecurity(query, data, "POST");
+
+    Var entity =  Var.valueOf(data.getEntityData());
+
+    RestClient.getRestClient().setRawBody(entity);
+    RestClient.getRestClient().setBody(data);
+
+    if (QueryManager.compile(query).isBlockly()) {
+      Var[] params = (Var[])ArrayUtils.addAll(new Var[] {entity}, pathParams);
+      QueryManager.executeEvent(query, entity, "beforeInsert");
+      Var inserted = QueryManager.executeBlockly(query, "POST", params);
+      QueryManager.executeEvent(query, entity, "afterInsert");
+
+      return inserted.getPOJO();
+    } else {
+      DataSource ds = new DataSource(query);
+
+      ds.insert(entity.getObject());
+
+      QueryManager.addDefaultValues(query, Var.valueOf(ds), true);
+
+      QueryManager.executeEvent(query, ds.getObject(), "beforeInsert");
+      Object inserted = ds.save(false);
+      QueryManager.executeEvent(query, ds.getObject(), "afterInsert");
+      QueryManager.checkFieldSecurity(query, ds, "GET");
+      QueryManager.addCalcFields(query, ds);
+
+      return Var.valueOf(inserted);
+    }
+  }
+
+  private Var queryUpdate(JsonObject query, RestBody data, Var[] pathParams) throws Exception {
+    QueryManager.checkFieldSecurity(query, data, "PUT");
+
+    Var entity =  Var.valueOf(data.getEntityData());
+    RestClient.getRestClient().setRawBody(entity);
+    RestClient.getRestClient().setBody(data);
+
+    if (QueryManager.compile(query).isBlockly()) {
+      Var[] params = (Var[])ArrayUtils.addAll(new Var[] {entity}, pathParams);
+      QueryManager.executeEvent(query, entity, "beforeUpdate");
+      Var modified = QueryManager.executeBlockly(query, "PUT", params);
+      QueryManager.executeEvent(query, entity, "afterUpdate");
+
+      return modified.getPOJO();
+    } else {
+      DataSource ds = new DataSource(query);
+
+      ds.filter(entity, null);
+      QueryManager.executeEvent(query, ds.getObject(), "beforeUpdate");
+      ds.update(entity);
+      Var saved = Var.valueOf(ds.save());
+      QueryManager.executeEvent(query, ds.getObject(), "afterUpdate");
+      QueryManager.checkFieldSecurity(query, ds, "GET");
+      QueryManager.addCalcFields(query, ds);
+      return saved;
+    }
+  }
+
+  /**
+   * Removes the object identified by the params or, when informed, by the
+   * keys of the entity data.
+   */
+  private void queryRemove(JsonObject query, Var[] params, Var entity) throws Exception {
+    if (QueryManager.compile(query).isBlockly()) {
+      QueryManager.executeEvent(query, "beforeDelete", params);
+      QueryManager.executeBlockly(query, "DELETE", params);
+      QueryManager.executeEvent(query, "afterDelete", params);
+    } else {
+      DataSource ds = new DataSource(query);
+      if (entity != null)
+        ds.filter(entity, null);
+      else
+        ds.filter(null, null, params);
+      QueryManager.executeEvent(query, ds.getObject(), "beforeDelete");
+      ds.delete();
+      QueryManager.executeEvent(query, ds.getObject(), "afterDelete");
+    }
+  }
   //Fim de api de Fonte de Dados
 
+  //Api de operações em lote
+  @RequestMapping(method = RequestMethod.POST, value = "/crud/{entity}/_bulk")
+  public HttpEntity<Map<String, Object>> crudBulk(@PathVariable("entity") String entity,
+                                                  @RequestBody final List<Map<String, Object>> operations) throws Exception {
+    DataSource batch = new DataSource(entity);
+
+    return runBulk(batch, operations, batch::checkRESTSecurity, (method, data, keys) -> {
+      DataSource ds = new DataSource(entity);
+      switch (method) {
+        case "POST":
+          ds.insert((Map<?, ?>) data.getObject());
+          return Var.valueOf(ds.save(false));
+        case "PUT":
+          ds.filter(data, null);
+          ds.update(data);
+          return Var.valueOf(ds.save());
+        default:
+          if (keys.length > 0) {
+            ds.delete(keys);
+          } else {
+            ds.filter(data, null);
+            ds.delete();
+          }
+          return Var.VAR_NULL;
+      }
+    });
+  }
+
+  @RequestMapping(method = RequestMethod.POST, value = "/query/{id}/_bulk")
+  public HttpEntity<Map<String, Object>> queryBulk(@PathVariable("id") String id,
+                                                   @RequestBody final List<Map<String, Object>> operations) throws Exception {
+    JsonObject query = QueryManager.getQuery(id);
+    DataSource batch = QueryManager.compile(query).isBlockly() ? null : new DataSource(query);
+
+    return runBulk(batch, operations, method -> QueryManager.checkSecurity(query, method), (method, data, keys) -> {
+      switch (method) {
+        case "POST":
+          return queryInsert(query, RestBody.parseBody((Map<?, ?>) data.getObject(), false), new Var[0]);
+        case "PUT":
+          return queryUpdate(query, RestBody.parseBody((Map<?, ?>) data.getObject(), false), new Var[0]);
+        default:
+          if (keys.length > 0)
+            queryRemove(query, keys, null);
+          else if (batch == null)
+            queryRemove(query, new Var[] {data}, null);
+          else
+            queryRemove(query, keys, data);
+          return Var.VAR_NULL;
+      }
+    });
+  }
+
+  @FunctionalInterface
+  private interface BulkOperation {
+    Var apply(String method, Var data, Var[] keys) throws Exception;
+  }
+
+  @FunctionalInterface
+  private interface BulkSecurity {
+    void check(String method) throws Exception;
+  }
+
+  private static String getBulkMethod(Map<String, Object> operation) {
+    Object op = operation.get("op");
+    if ("insert".equals(op))
+      return "POST";
+    if ("update".equals(op))
+      return "PUT";
+    if ("delete".equals(op))
+      return "DELETE";
+    throw new RuntimeException(Messages.format(Messages.getString("invalidBulkOperation"), op));
+  }
+
+  private static Set<String> getBulkMethods(List<Map<String, Object>> operations) {
+    Set<String> methods = new LinkedHashSet<>();
+    for (Map<String, Object> operation : operations) {
+      methods.add(getBulkMethod(operation));
+    }
+    return methods;
+  }
+
+  /**
+   * Runs all the operations in a single transaction with JDBC batch writing
+   * enabled. When an operation fails the remaining ones are skipped and the
+   * whole transaction is rolled back. The batched statements are only written
+   * at the end, so when that fails no operation can be told apart and all of
+   * them are reported as failed.
+   */
+  private HttpEntity<Map<String, Object>> runBulk(DataSource batch, List<Map<String, Object>> operations,
+                                                  BulkSecurity security, BulkOperation bulkOperation) throws Exception {
+    RestClient.getRestClient().setFilteredEnabled(true);
+    RestClient.getRestClient().setTenantService(tenantService);
+
+    // A denied permission is answered as in the single operation endpoints
+    for (String method : getBulkMethods(operations)) {
+      security.check(method);
+    }
+
+    List<Map<String, Object>> items = new LinkedList<>();
+    Map<String, Object> result = new LinkedHashMap<>();
+    boolean committed = false;
+    try {
+      Callable<Boolean> callable = () -> {
+        boolean failed = false;
+        int index = 0;
+        for (Map<String, Object> operation : operations) {
+          Map<String, Object> item = new LinkedHashMap<>();
+          item.put("index", index++);
+          items.add(item);
+
+          if (failed) {
+            item.put("status", HttpStatus.FAILED_DEPENDENCY.value());
+            continue;
+          }
+
+          String method = getBulkMethod(operation);
+          try {
+            Var data = Var.valueOf(operation.get("data"));
+            Object keys = operation.get("keys");
+            Var[] keyParams = keys instanceof List ? toVarArray(new LinkedList((List<?>) keys)) : new Var[0];
+
+            Var value = bulkOperation.apply(method, data, keyParams);
+            item.put("status", HttpStatus.OK.value());
+            item.put("data", value.getObject());
+          }
+          catch (Exception e) {
+            failed = true;
+            item.put("status", HttpStatus.INTERNAL_SERVER_ERROR.value());
+            item.put("error", ErrorResponse.getExceptionMessage(e, method));
+          }
+        }
+        return !failed;
+      };
+
+      boolean success = batch != null ? batch.batch(callable) : callable.call();
+      if (success) {
+        TransactionManager.commit();
+        committed = true;
+      } else {
+        TransactionManager.rollback();
+      }
+    }
+    catch (Exception e) {
+      TransactionManager.rollback();
+      String error = ErrorResponse.getExceptionMessage(e, "POST");
+      result.put("error", error);
+      for (Map<String, Object> item : items) {
+        if (Integer.valueOf(HttpStatus.OK.value()).equals(item.get("status"))) {
+          item.put("status", HttpStatus.INTERNAL_SERVER_ERROR.value());
+          item.remove("data");
+          item.put("error", error);
+        }
+      }
+    }
+    finally {
+      TransactionManager.close();
+      TransactionManager.clear();
+    }
+
+    result.put("committed", committed);
+    result.put("items", items);
+
+    return new ResponseEntity<Map<String, Object>>(result, committed ? HttpStatus.OK : HttpStatus.INTERNAL_SERVER_ERROR);
+  }
+  //Fim de api de operações em lote
+
   //Api via bloco
   @RequestMapping(method = RequestMethod.POST, value = "/call/body/{class}/**")
   public RestResult postBody(@RequestBody RestBody body, @PathVariable("class") String clazz) throws Exception {
@@ -521,6 +771,29 @@ public class CronapiREST {
   }
   //Fim Api de Segurança
 
+  //Api de métricas
+
+  @RequestMapping(method = RequestMethod.GET, value = "/metrics")
+  public ResponseEntity<?> metrics() throws Exception {
+    if (!Authorization.isAuthorized(BlocklyMetrics.ROLES)) {
+      ErrorResponse errorResponse = new ErrorResponse(HttpStatus.FORBIDDEN.value(),
+          new RuntimeException(Messages.getString("notAllowed")), request.getMethod());
+      return new ResponseEntity<ErrorResponse>(errorResponse, HttpStatus.FORBIDDEN);
+    }
+
+    Map<String, Object> reportJobs = new LinkedHashMap<>();
+    reportJobs.put("queued", ReportJobs.getQueued());
+    reportJobs.put("running", ReportJobs.getRunning());
+
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("blockly", BlocklyMetrics.getStats());
+    metrics.put("queryCache", QueryResultCache.getStats());
+    metrics.put("reportFactories", ReportEntityManagerFactories.getStats());
+    metrics.put("reportJobs", reportJobs);
+    return new ResponseEntity<Map<String, Object>>(metrics, HttpStatus.OK);
+  }
+  //Fim Api de métricas
+
   //Api upload e visualização de arquivo
 	@RequestMapping(method = RequestMethod.GET, value = "/filePreview/{fileName}/**")
 	public void filePreview(@PathVariable("fileName") String fileName) throws Exception {
@@ -1,5 +1,7 @@
 package cronapi.rest;
 
+import java.io.IOException;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -10,6 +12,7 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -17,6 +20,8 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import cronapi.ErrorResponse;
+import cronapi.report.ReportJob;
+import cronapi.report.ReportJobs;
 import cronapi.report.ReportService;
 import cronapp.reports.commons.ReportFront;
 
@@ -39,16 +44,32 @@ public class ReportREST {
     return ResponseEntity.ok().body(reportResult);
   }
   
-  @RequestMapping(value = "/report/pdf", method = RequestMethod.POST, produces = MediaType.TEXT_PLAIN_VALUE)
-  public ResponseEntity<byte[]> getPDF(@RequestBody ReportFront reportFront, HttpServletResponse response) {
-    if(reportFront == null)
-      return ResponseEntity.badRequest().header("Error", "Report is null").body(new byte[0]);
+  @RequestMapping(value = "/report/pdf", method = RequestMethod.POST)
+  public void getPDF(@RequestBody ReportFront reportFront, HttpServletResponse response) throws IOException {
+    if(reportFront == null) {
+      response.setHeader("Error", "Report is null");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
     String reportName = reportFront.getReportName();
     log.debug("Print report [" + reportName + "]");
     response.setHeader("Content-Disposition", "inline; filename=" + reportName + ".pdf");
     response.setContentType("application/pdf");
-    byte[] reportResult = reportService.getPDF(reportFront);
-    return ResponseEntity.ok().body(reportResult);
+    reportService.writePDF(reportFront, response.getOutputStream());
+  }
+  
+  @RequestMapping(value = "/report/xls", method = RequestMethod.POST)
+  public void getXLS(@RequestBody ReportFront reportFront, HttpServletResponse response) throws IOException {
+    if(reportFront == null) {
+      response.setHeader("Error", "Report is null");
+      response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+      return;
+    }
+    String reportName = reportFront.getReportName();
+    log.debug("Print report [" + reportName + "]");
+    response.setHeader("Content-Disposition", "attachment; filename=" + reportName + ".xls");
+    response.setContentType("application/vnd.ms-excel");
+    reportService.writeXLS(reportFront, response.getOutputStream());
   }
   
   @RequestMapping(value = "/report/pdfasfile", method = RequestMethod.POST, produces = MediaType.TEXT_PLAIN_VALUE)
@@ -63,6 +84,23 @@ public class ReportREST {
     return ResponseEntity.ok().body(reportResult);
   }
   
+  @RequestMapping(value = "/report/async", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ReportJob> submit(@RequestBody ReportFront reportFront) {
+    if(reportFront == null)
+      return ResponseEntity.badRequest().header("Error", "Report is null").body(null);
+    log.debug("Queue report [" + reportFront.getReportName() + "]");
+    ReportJob job = ReportJobs.submit(reportService, reportFront);
+    return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+  }
+  
+  @RequestMapping(value = "/report/async/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ReportJob> getJob(@PathVariable("id") String id) {
+    ReportJob job = ReportJobs.get(id);
+    if(job == null)
+      return ResponseEntity.status(HttpStatus.NOT_FOUND).header("Error", "Report job not found").body(null);
+    return ResponseEntity.ok().body(job);
+  }
+  
   @ExceptionHandler(Throwable.class)
   @ResponseBody
   ResponseEntity<ErrorResponse> handleControllerException(HttpServletRequest req, Throwable ex) {
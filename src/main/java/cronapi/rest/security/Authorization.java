@@ -0,0 +1,75 @@
+package cronapi.rest.security;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import cronapi.RestClient;
+import cronapi.util.ConcurrentCache;
+
+/**
+ * Evaluates the role lists used by {@link CronappSecurity} and by the queries
+ * (roles separated by ";"). The lists are parsed once into lower-cased sets
+ * and checked against the authorities of the current request, so a check
+ * costs a few set lookups.
+ */
+public class Authorization {
+
+  private static final ConcurrentCache<String, Set<String>> ROLES = new ConcurrentCache<>(10000);
+
+  /**
+   * @return the lower-cased roles of the list
+   */
+  public static Set<String> parseRoles(String value) {
+    Set<String> roles = ROLES.get(value);
+    if(roles == null) {
+      Set<String> parsed = new HashSet<>();
+      for(String role : value.trim().split(";")) {
+        if(!role.trim().isEmpty()) {
+          parsed.add(role.trim().toLowerCase());
+        }
+      }
+      roles = Collections.unmodifiableSet(parsed);
+      ROLES.put(value, roles);
+    }
+    return roles;
+  }
+
+  public static boolean isAuthorized(String roles) {
+    return isAuthorized(parseRoles(roles));
+  }
+
+  /**
+   * @param roles
+   *          - lower-cased roles
+   * @return true when a role is public or permitAll, when it's authenticated
+   *         and there is an user, or when the user has the role
+   */
+  public static boolean isAuthorized(Set<String> roles) {
+    if(roles.contains("public") || roles.contains("permitall")) {
+      return true;
+    }
+
+    RestClient client = RestClient.getRestClient();
+    if(roles.contains("authenticated") && client.getUser() != null) {
+      return true;
+    }
+
+    Set<String> authorities = client.getAuthoritySet();
+    if(roles.size() < authorities.size()) {
+      for(String role : roles) {
+        if(authorities.contains(role)) {
+          return true;
+        }
+      }
+    }
+    else {
+      for(String authority : authorities) {
+        if(roles.contains(authority)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+}
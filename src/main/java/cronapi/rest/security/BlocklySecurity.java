@@ -2,60 +2,79 @@ package cronapi.rest.security;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
 
 import cronapi.i18n.Messages;
-import org.springframework.security.core.GrantedAuthority;
-
-import cronapi.RestClient;
 
 public class BlocklySecurity {
-  
-  public static void checkSecurity(Class clazz, String method) throws Exception {
-    
-    if(clazz != null) {
-      
-      String value = null;
-      for(Annotation annotation : clazz.getAnnotations()) {
-        if(annotation.annotationType().getName().equals("cronapi.rest.security.CronappSecurity")) {
-          Method type = annotation.annotationType().getMethod(method.toLowerCase());
-          if(type != null) {
-            value = (String)type.invoke(annotation);
-          }
-        }
+
+  private static final Set<String> DEFAULT_ROLES = Collections.singleton("authenticated");
+
+  private static final String[] VERBS = { "get", "post", "put", "delete", "filter", "execute" };
+
+  private static final Map<String, Set<String>> UNANNOTATED = Collections.emptyMap();
+
+  /**
+   * Roles of each verb of a blockly, read from its {@link CronappSecurity}
+   * annotation once per class.
+   */
+  private static final ClassValue<Map<String, Set<String>>> PLANS = new ClassValue<Map<String, Set<String>>>() {
+    @Override
+    protected Map<String, Set<String>> computeValue(Class<?> type) {
+      return createPlan(type);
+    }
+  };
+
+  private static Map<String, Set<String>> createPlan(Class<?> clazz) {
+    Annotation security = null;
+    for(Annotation annotation : clazz.getAnnotations()) {
+      if(annotation.annotationType().getName().equals("cronapi.rest.security.CronappSecurity")) {
+        security = annotation;
       }
-      
-      if(value == null || value.isEmpty())
-        value = "Authenticated";
-      
-      boolean authorized = false;
-      
-      String[] authorities = value.trim().split(";");
-      
-      for(String role : authorities) {
-        if(role.equalsIgnoreCase("authenticated")) {
-          authorized = RestClient.getRestClient().getUser() != null;
-          if(authorized)
-            break;
-        }
-        if(role.equalsIgnoreCase("permitAll") || role.equalsIgnoreCase("public")) {
-          authorized = true;
-          break;
-        }
-        for(GrantedAuthority authority : RestClient.getRestClient().getAuthorities()) {
-          if(role.equalsIgnoreCase(authority.getAuthority())) {
-            authorized = true;
-            break;
-          }
-        }
-        
-        if(authorized)
-          break;
+    }
+    if(security == null) {
+      return UNANNOTATED;
+    }
+
+    Map<String, Set<String>> plan = new HashMap<>();
+    for(String verb : VERBS) {
+      String value;
+      try {
+        Method type = security.annotationType().getMethod(verb);
+        value = (String)type.invoke(security);
       }
-      
-      if(!authorized) {
-        throw new RuntimeException(Messages.getString("notAllowed"));
+      catch(ReflectiveOperationException e) {
+        continue;
       }
-      
+      plan.put(verb, value == null || value.isEmpty() ? DEFAULT_ROLES : Authorization.parseRoles(value));
+    }
+    return Collections.unmodifiableMap(plan);
+  }
+
+  /**
+   * @return the roles of each verb of the blockly, authenticated when not defined
+   */
+  public static Map<String, Set<String>> getPlan(Class clazz) {
+    return PLANS.get(clazz);
+  }
+
+  public static void checkSecurity(Class clazz, String method) throws Exception {
+    if(clazz != null) {
+      checkSecurity(getPlan(clazz), method);
+    }
+  }
+
+  public static void checkSecurity(Map<String, Set<String>> plan, String method) throws Exception {
+    Set<String> roles = plan == UNANNOTATED ? DEFAULT_ROLES : plan.get(method.toLowerCase());
+    if(roles == null) {
+      throw new NoSuchMethodException(method.toLowerCase());
+    }
+
+    if(!Authorization.isAuthorized(roles)) {
+      throw new RuntimeException(Messages.getString("notAllowed"));
     }
   }
 }
@@ -1,12 +1,13 @@
 package cronapi.serialization;
 
 import java.io.IOException;
-import java.util.Arrays;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletRequest;
+
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.BeanDescription;
@@ -23,11 +24,12 @@ import com.google.gson.JsonElement;
 import cronapi.QueryManager;
 import cronapi.RestClient;
 import cronapi.SecurityBeanFilter;
-import cronapi.Var;
 import cronapi.serialization.CronappBeanSerializerModifier.UserEventDeserializer;
 
 public class CronappBeanSerializerModifier extends BeanSerializerModifier {
 
+  private static final String ALLOWED_PROPERTIES = "CronappAllowedProperties";
+
   private boolean enableFilter = true;
 
   public CronappBeanSerializerModifier() {
@@ -58,6 +60,57 @@ public class CronappBeanSerializerModifier extends BeanSerializerModifier {
       serializeFields(bean, gen, provider);
     }
     
+    /**
+     * Returns the properties of the class the current user can read, followed
+     * by the calculated fields of the query. They are filtered once per
+     * request and class, and again only when the query hides or adds fields
+     * afterwards.
+     */
+    private BeanPropertyWriter[] getAllowedProperties(Class clazz) {
+      HttpServletRequest request = RestClient.getRestClient() != null ? RestClient.getRestClient().getRequest() : null;
+      if (request == null || clazz == null) {
+        return _props;
+      }
+
+      Map<AllowedKey, AllowedProperties> cache = (Map<AllowedKey, AllowedProperties>) request
+          .getAttribute(ALLOWED_PROPERTIES);
+      if (cache == null) {
+        cache = new HashMap<>();
+        request.setAttribute(ALLOWED_PROPERTIES, cache);
+      }
+
+      Integer version = (Integer) request.getAttribute(QueryManager.BEAN_PROPERTY_VERSION);
+      int currentVersion = version != null ? version : 0;
+
+      AllowedKey key = new AllowedKey(this, clazz);
+      AllowedProperties allowed = cache.get(key);
+      if (allowed == null || allowed.version != currentVersion) {
+        Map<String, JsonElement> newProperties = (Map<String, JsonElement>) request.getAttribute("NewBeanProperty");
+        List<BeanPropertyWriter> list = new ArrayList<>(_props.length);
+        for (BeanPropertyWriter prop : _props) {
+          if (prop != null && SecurityBeanFilter.includeProperty(clazz, prop.getName(), "GET")) {
+            list.add(prop);
+          }
+        }
+
+        if (newProperties != null && _props.length > 0) {
+          String prefix = clazz.getCanonicalName() + ".";
+          for (Map.Entry<String, JsonElement> entry : newProperties.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+              String field = entry.getKey().substring(entry.getKey().lastIndexOf(".") + 1);
+              if (SecurityBeanFilter.includeProperty(clazz, field, "GET")) {
+                list.add(new CronappCalcFieldPropertyWriter(_props[0], field, entry.getValue()));
+              }
+            }
+          }
+        }
+
+        allowed = new AllowedProperties(list.toArray(new BeanPropertyWriter[list.size()]), currentVersion);
+        cache.put(key, allowed);
+      }
+      return allowed.writers;
+    }
+
     private void processByteHeaderSignatueFields(Object bean) {
       List<String> fields = cronapi.Utils.getFieldsWithAnnotationByteHeaderSignature(bean);
       for (String field: fields) {
@@ -74,67 +127,20 @@ public class CronappBeanSerializerModifier extends BeanSerializerModifier {
       if (!enableFilter) {
         super.serializeFields(bean, gen, provider);
       } else {
-        final BeanPropertyWriter[] props;
-
-        List<BeanPropertyWriter> addProperties = null;
-
-        LinkedHashMap<String, JsonElement> newProperties = null;
-
         Class clazzToCheck = null;
         if (bean != null) {
           clazzToCheck = bean.getClass();
         }
 
-        if (RestClient.getRestClient() != null && RestClient.getRestClient().getRequest() != null) {
-          newProperties = (LinkedHashMap<String, JsonElement>) RestClient.getRestClient().getRequest()
-                  .getAttribute("NewBeanProperty");
-        }
-
-        if (newProperties != null && _props.length > 0 && bean != null) {
-          for (Map.Entry<String, JsonElement> entry : newProperties.entrySet()) {
-            if (entry.getKey().startsWith(bean.getClass().getCanonicalName() + ".")) {
-              String field = entry.getKey().substring(entry.getKey().lastIndexOf(".") + 1);
-              Var value = Var.VAR_NULL;
-
-              if (entry.getValue().isJsonPrimitive()) {
-                value = Var.valueOf(entry.getValue());
-              } else {
-                try {
-                  value = QueryManager.doExecuteBlockly(entry.getValue().getAsJsonObject(),
-                          RestClient.getRestClient().getMethod(), Var.valueOf(bean));
-                } catch (Exception e) {
-                  value = Var.valueOf("ERROR: " + e.getMessage());
-                }
-              }
-
-              if (addProperties == null)
-                addProperties = new LinkedList<>();
-
-              BeanPropertyWriter beanPropertyWriter = new CronappVirtualBeanPropertyWriter(_props[0], field, value);
-              addProperties.add(beanPropertyWriter);
-            }
-          }
-        }
-
-        if (addProperties != null) {
-          props = Arrays.copyOf(_props, _props.length + addProperties.size());
-
-          for (int i = 0; i < addProperties.size(); i++) {
-            props[_props.length + i] = addProperties.get(i);
-          }
-        } else {
-          props = _props;
-        }
+        final BeanPropertyWriter[] props = getAllowedProperties(clazzToCheck);
 
         processByteHeaderSignatueFields(bean);
         int i = 0;
         try {
           for (final int len = props.length; i < len; ++i) {
-            if (SecurityBeanFilter.includeProperty(clazzToCheck, props[i].getName(), "GET")) {
-              BeanPropertyWriter prop = props[i];
-              if (prop != null) { // can have nulls in filtered list
-                prop.serializeAsField(bean, gen, provider);
-              }
+            BeanPropertyWriter prop = props[i];
+            if (prop != null) { // can have nulls in filtered list
+              prop.serializeAsField(bean, gen, provider);
             }
           }
           if (_anyGetterWriter != null) {
@@ -152,4 +158,39 @@ public class CronappBeanSerializerModifier extends BeanSerializerModifier {
       }
     }
   }
+
+  private static class AllowedKey {
+
+    private final BeanSerializer serializer;
+    private final Class clazz;
+
+    private AllowedKey(BeanSerializer serializer, Class clazz) {
+      this.serializer = serializer;
+      this.clazz = clazz;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof AllowedKey))
+        return false;
+      AllowedKey other = (AllowedKey) obj;
+      return serializer == other.serializer && clazz == other.clazz;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(serializer) + clazz.hashCode();
+    }
+  }
+
+  private static class AllowedProperties {
+
+    private final BeanPropertyWriter[] writers;
+    private final int version;
+
+    private AllowedProperties(BeanPropertyWriter[] writers, int version) {
+      this.writers = writers;
+      this.version = version;
+    }
+  }
 }
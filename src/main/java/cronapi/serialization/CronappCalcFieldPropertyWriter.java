@@ -0,0 +1,29 @@
+package cronapi.serialization;
+
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.google.gson.JsonElement;
+
+import cronapi.QueryManager;
+
+/**
+ * Writes a calculated field of a query. The value of each bean is the one
+ * evaluated for the page by {@link QueryManager#evaluateCalcFields}, or is
+ * evaluated when the bean is serialized.
+ */
+public class CronappCalcFieldPropertyWriter extends CronappVirtualBeanPropertyWriter {
+  
+  private final String field;
+  
+  private final JsonElement definition;
+  
+  public CronappCalcFieldPropertyWriter(BeanPropertyWriter base, String field, JsonElement definition) {
+    super(base, field, null);
+    this.field = field;
+    this.definition = definition;
+  }
+  
+  @Override
+  protected Object getValue(Object bean) {
+    return QueryManager.getCalcFieldValue(definition, field, bean);
+  }
+}
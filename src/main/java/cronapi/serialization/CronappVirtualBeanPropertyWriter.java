@@ -16,9 +16,14 @@ public class CronappVirtualBeanPropertyWriter extends BeanPropertyWriter {
     this.value = value;
   }
   
+  protected Object getValue(Object bean) {
+    return value;
+  }
+  
   @Override
   public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider provider) throws Exception {
     JsonSerializer<Object> ser = null;
+    Object value = getValue(bean);
     Class<?> cls = value.getClass();
     PropertySerializerMap m = _dynamicSerializers;
     ser = m.serializerFor(cls);
@@ -0,0 +1,266 @@
+package cronapi.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Calls, errors and latency of the blocklies, by "class:method" and by query
+ * event. Calls answered from the results memoized with
+ * {@link cronapi.CronapiMemoize} are counted apart, as memo hits, and don't
+ * take part in the latency. The latencies are kept in a histogram of logarithmic buckets with
+ * four sub-buckets per power of two of microseconds, so recording a call only
+ * increments a few counters and the percentiles have an error below 25%.
+ */
+public class BlocklyMetrics implements BlocklyMetricsMXBean {
+
+  private static final Logger log = LoggerFactory.getLogger(BlocklyMetrics.class);
+
+  public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("cronapi.metrics", "true"));
+
+  /**
+   * Roles allowed to read the metrics through REST
+   */
+  public static final String ROLES = System.getProperty("cronapi.metrics.roles", "Administrators");
+
+  private static final int BUCKETS = 252;
+
+  private static final Map<String, Timer> TIMERS = new ConcurrentHashMap<>();
+
+  private static final BlocklyMetrics INSTANCE = new BlocklyMetrics();
+
+  static {
+    if (ENABLED) {
+      try {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("cronapi:type=BlocklyMetrics");
+        if (!server.isRegistered(name)) {
+          server.registerMBean(INSTANCE, name);
+        }
+      } catch (Exception e) {
+        log.warn("Unable to register the blockly metrics in JMX", e);
+      }
+    }
+  }
+
+  /**
+   * @return the time to pass to {@link #record(String, long, boolean)}
+   */
+  public static long start() {
+    return ENABLED ? System.nanoTime() : 0;
+  }
+
+  public static void record(String name, long start, boolean error) {
+    if (ENABLED) {
+      Timer timer = TIMERS.get(name);
+      if (timer == null) {
+        timer = TIMERS.computeIfAbsent(name, k -> new Timer());
+      }
+      timer.record(System.nanoTime() - start, error);
+    }
+  }
+
+  /**
+   * Counts a call answered by a memoized result
+   */
+  public static void recordMemoHit(String name) {
+    if (ENABLED) {
+      Timer timer = TIMERS.get(name);
+      if (timer == null) {
+        timer = TIMERS.computeIfAbsent(name, k -> new Timer());
+      }
+      timer.memoHits.increment();
+    }
+  }
+
+  /**
+   * @return the statistics of each function, the ones that took more time first
+   */
+  public static List<FunctionStats> getStats() {
+    List<FunctionStats> stats = new ArrayList<>(TIMERS.size());
+    for (Map.Entry<String, Timer> entry : TIMERS.entrySet()) {
+      stats.add(entry.getValue().snapshot(entry.getKey()));
+    }
+    Collections.sort(stats, (a, b) -> Double.compare(b.getTotalMillis(), a.getTotalMillis()));
+    return stats;
+  }
+
+  public static void clear() {
+    TIMERS.clear();
+  }
+
+  @Override
+  public List<FunctionStats> getFunctions() {
+    return getStats();
+  }
+
+  @Override
+  public void reset() {
+    clear();
+  }
+
+  /**
+   * @return the bucket of the histogram that counts the latency, in microseconds
+   */
+  public static int bucket(long micros) {
+    if (micros < 4) {
+      return (int) Math.max(micros, 0);
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    int sub = (int) (micros >>> (exponent - 2)) & 3;
+    return 4 + (exponent - 2) * 4 + sub;
+  }
+
+  /**
+   * @return the highest value of the bucket, in microseconds
+   */
+  public static long upperBound(int bucket) {
+    if (bucket < 4) {
+      return bucket + 1;
+    }
+    int exponent = (bucket - 4) / 4 + 2;
+    int sub = (bucket - 4) % 4;
+    return (5L + sub) << (exponent - 2);
+  }
+
+  private static class Timer {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder memoHits = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    private Timer() {
+      for (int i = 0; i < BUCKETS; i++) {
+        histogram[i] = new LongAdder();
+      }
+    }
+
+    private void record(long nanos, boolean error) {
+      calls.increment();
+      if (error) {
+        errors.increment();
+      }
+      totalNanos.add(nanos);
+      maxNanos.accumulate(nanos);
+      histogram[bucket(TimeUnit.NANOSECONDS.toMicros(nanos))].increment();
+    }
+
+    private FunctionStats snapshot(String name) {
+      long[] counts = new long[BUCKETS];
+      long count = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        counts[i] = histogram[i].sum();
+        count += counts[i];
+      }
+
+      long total = totalNanos.sum();
+      long calls = this.calls.sum();
+      return new FunctionStats(name, calls, errors.sum(), memoHits.sum(), toMillis(total), calls > 0 ? toMillis(total / calls) : 0,
+          toMillis(maxNanos.get()), percentile(counts, count, 0.5), percentile(counts, count, 0.9),
+          percentile(counts, count, 0.99));
+    }
+
+    private static double percentile(long[] counts, long count, double percentile) {
+      long target = (long) Math.ceil(count * percentile);
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; i++) {
+        seen += counts[i];
+        if (seen > 0 && seen >= target) {
+          return upperBound(i) / 1000d;
+        }
+      }
+      return 0;
+    }
+
+    private static double toMillis(long nanos) {
+      return nanos / 1000000d;
+    }
+  }
+
+  public static class FunctionStats {
+
+    private final String name;
+    private final long calls;
+    private final long errors;
+    private final long memoHits;
+    private final double totalMillis;
+    private final double meanMillis;
+    private final double maxMillis;
+    private final double p50Millis;
+    private final double p90Millis;
+    private final double p99Millis;
+
+    private FunctionStats(String name, long calls, long errors, long memoHits, double totalMillis,
+        double meanMillis, double maxMillis, double p50Millis, double p90Millis, double p99Millis) {
+      this.name = name;
+      this.calls = calls;
+      this.errors = errors;
+      this.memoHits = memoHits;
+      this.totalMillis = totalMillis;
+      this.meanMillis = meanMillis;
+      this.maxMillis = maxMillis;
+      this.p50Millis = p50Millis;
+      this.p90Millis = p90Millis;
+      this.p99Millis = p99Millis;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCalls() {
+      return calls;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    /**
+     * @return the calls answered by a memoized result, which aren't part of
+     *         the calls
+     */
+    public long getMemoHits() {
+      return memoHits;
+    }
+
+    public double getTotalMillis() {
+      return totalMillis;
+    }
+
+    public double getMeanMillis() {
+      return meanMillis;
+    }
+
+    public double getMaxMillis() {
+      return maxMillis;
+    }
+
+    public double getP50Millis() {
+      return p50Millis;
+    }
+
+    public double getP90Millis() {
+      return p90Millis;
+    }
+
+    public double getP99Millis() {
+      return p99Millis;
+    }
+  }
+}
@@ -0,0 +1,14 @@
+package cronapi.util;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link BlocklyMetrics}, registered as
+ * <code>cronapi:type=BlocklyMetrics</code>.
+ */
+public interface BlocklyMetricsMXBean {
+
+  List<BlocklyMetrics.FunctionStats> getFunctions();
+
+  void reset();
+}
@@ -0,0 +1,221 @@
+package cronapi.util;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import cronapi.CronapiMemoize;
+import cronapi.RestClient;
+import cronapi.Var;
+import cronapi.database.TenantService;
+import cronapi.rest.security.BlocklySecurity;
+
+/**
+ * Method of a blockly called through {@link Operations#callBlockly}, resolved
+ * once from its "class:method" name. Keeps the class, a handle to the method,
+ * whether the class is a blockly, the roles of its verbs and the results
+ * memoized with {@link CronapiMemoize}.
+ */
+final class BlocklyTarget {
+
+  private static final Object NOT_MEMOIZABLE = new Object();
+
+  private final Class clazz;
+  private final Method method;
+  private final MethodHandle handle;
+  private final boolean blockly;
+  private final Map<String, Set<String>> security;
+  private final CronapiMemoize memoize;
+  private final ConcurrentCache<List<Object>, Var> results;
+
+  BlocklyTarget(Class clazz, Method method) {
+    this.clazz = clazz;
+    this.method = method;
+    this.blockly = isBlockly(clazz);
+    this.security = BlocklySecurity.getPlan(clazz);
+    this.handle = method != null ? createHandle(method) : null;
+
+    CronapiMemoize memoize = method != null ? method.getAnnotation(CronapiMemoize.class) : null;
+    if (memoize == null && method != null) {
+      memoize = (CronapiMemoize) clazz.getAnnotation(CronapiMemoize.class);
+    }
+    this.memoize = memoize;
+    this.results = memoize != null ? new ConcurrentCache<>(memoize.maxSize(), memoize.ttl()) : null;
+  }
+
+  private static boolean isBlockly(Class clazz) {
+    try {
+      for (Annotation annotation : clazz.getAnnotations()) {
+        if (annotation.annotationType().getName().equals("cronapi.CronapiMetaData")) {
+          Method type = annotation.annotationType().getMethod("type");
+          if ("blockly".equals(type.invoke(annotation))) {
+            return true;
+          }
+        }
+      }
+    } catch (ReflectiveOperationException e) {
+      // Not a blockly
+    }
+    return false;
+  }
+
+  /**
+   * Static methods of public classes are called through a handle that takes
+   * the parameters as an array, the others through reflection.
+   */
+  private static MethodHandle createHandle(Method method) {
+    if (!Modifier.isStatic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+      return null;
+    }
+    int count = method.getParameterCount();
+    try {
+      return MethodHandles.publicLookup().unreflect(method).asFixedArity()
+          .asType(MethodType.genericMethodType(count)).asSpreader(Object[].class, count);
+    } catch (IllegalAccessException e) {
+      return null;
+    }
+  }
+
+  public Class getTargetClass() {
+    return clazz;
+  }
+
+  /**
+   * @return the method called or null when the class doesn't have it
+   */
+  public Method getMethod() {
+    return method;
+  }
+
+  public boolean isBlockly() {
+    return blockly;
+  }
+
+  public Map<String, Set<String>> getSecurity() {
+    return security;
+  }
+
+  /**
+   * Calls the method. Missing parameters are passed as null and extra ones are
+   * ignored. Exceptions thrown by the method are wrapped in an
+   * {@link InvocationTargetException}, as when calling it through reflection.
+   */
+  public Object invoke(Var[] params) throws Exception {
+    Object[] callParams = pad(params == null ? new Var[0] : params);
+    if (handle == null) {
+      return method.invoke(clazz, callParams);
+    }
+    try {
+      return (Object) handle.invokeExact(callParams);
+    } catch (Throwable e) {
+      throw new InvocationTargetException(e);
+    }
+  }
+
+  /**
+   * @return the key of the result of the call, or null when the method isn't
+   *         memoized or a parameter isn't a simple value
+   */
+  public List<Object> getMemoKey(Var[] params) {
+    if (results == null) {
+      return null;
+    }
+
+    List<Object> key = new ArrayList<>(params == null ? 1 : params.length + 1);
+    if (params != null) {
+      for (Var param : params) {
+        Object value = toKey(param);
+        if (value == NOT_MEMOIZABLE) {
+          return null;
+        }
+        key.add(value);
+      }
+    }
+
+    if (memoize.perTenant()) {
+      TenantService tenantService = RestClient.getRestClient().getTenantService();
+      if (tenantService != null && tenantService.getContextIds() != null) {
+        key.add(new TreeMap<>(tenantService.getContextIds()));
+      }
+    }
+    return key;
+  }
+
+  private static Object toKey(Var param) {
+    Object value = param != null ? param.getObject() : null;
+    if (value == null || value instanceof String || value instanceof Boolean || value instanceof Character
+        || value instanceof Integer || value instanceof Long || value instanceof Double || value instanceof Float
+        || value instanceof Short || value instanceof Byte || value instanceof BigDecimal
+        || value instanceof BigInteger) {
+      return value;
+    }
+    if (value instanceof Date) {
+      return Arrays.asList(Date.class, ((Date) value).getTime());
+    }
+    if (value instanceof Calendar) {
+      Calendar calendar = (Calendar) value;
+      return Arrays.asList(Calendar.class, calendar.getTimeInMillis(), calendar.getTimeZone().getID());
+    }
+    return NOT_MEMOIZABLE;
+  }
+
+  /**
+   * @return a copy of the memoized result or null when there isn't one
+   */
+  public Var getMemoized(List<Object> key) {
+    Var result = results.get(key);
+    return result != null ? copy(result) : null;
+  }
+
+  /**
+   * Keeps a copy of the result. Only the simple values accepted as parameters
+   * are kept, since the other objects may be changed by the caller.
+   */
+  public void memoize(List<Object> key, Var result) {
+    Var copy = copy(result);
+    if (copy != null) {
+      results.put(key, copy);
+    }
+  }
+
+  /**
+   * @return a copy that doesn't share mutable state with the value, or null
+   *         when the value isn't a simple value
+   */
+  private static Var copy(Var value) {
+    Object object = value.getObject();
+    if (object instanceof Date) {
+      return new Var(((Date) object).clone());
+    }
+    if (object instanceof Calendar) {
+      return new Var(((Calendar) object).clone());
+    }
+    return toKey(value) != NOT_MEMOIZABLE ? new Var(object) : null;
+  }
+
+  private Object[] pad(Var[] params) {
+    int count = method.getParameterCount();
+    if (count == params.length) {
+      return params;
+    }
+    Var[] callParams = new Var[count];
+    for (int i = 0; i < count; i++) {
+      callParams[i] = i < params.length ? params[i] : Var.VAR_NULL;
+    }
+    return callParams;
+  }
+}
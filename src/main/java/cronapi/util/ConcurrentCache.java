@@ -0,0 +1,175 @@
+package cronapi.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Bounded cache safe for concurrent use. Reads never lock; when the cache
+ * grows past its maximum size the oldest inserted entries are evicted. Each
+ * insertion is queued with a stamp, so a key invalidated and inserted again
+ * is only evicted through its new position in the queue.
+ * Entries optionally expire after a time to live (in milliseconds, zero or
+ * less means no expiration).
+ */
+public class ConcurrentCache<K, V> {
+
+  private final ConcurrentHashMap<K, CacheEntry<V>> map = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Insertion<K>> order = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicLong stamps = new AtomicLong();
+
+  private final int maxSize;
+  private final long expires;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  public ConcurrentCache(int maxSize) {
+    this(maxSize, 0);
+  }
+
+  public ConcurrentCache(int maxSize, long expires) {
+    this.maxSize = maxSize;
+    this.expires = expires;
+  }
+
+  public V get(K key) {
+    CacheEntry<V> entry = map.get(key);
+    if(entry != null) {
+      if(!isExpired(entry)) {
+        hits.incrementAndGet();
+        return entry.value;
+      }
+      map.remove(key, entry);
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public V put(K key, V value) {
+    long stamp = stamps.incrementAndGet();
+    // A replaced value keeps the position of the one it replaces
+    CacheEntry<V> entry = map.compute(key, (k, previous) -> new CacheEntry<>(value,
+        previous != null ? previous.stamp : stamp));
+    if(entry.stamp == stamp) {
+      order.add(new Insertion<>(key, stamp));
+      queued.incrementAndGet();
+      evict();
+    }
+    return value;
+  }
+
+  public V computeIfAbsent(K key, Function<? super K, ? extends V> loader) {
+    V value = get(key);
+    if(value == null) {
+      value = loader.apply(key);
+      if(value != null) {
+        put(key, value);
+      }
+    }
+    return value;
+  }
+
+  public void invalidate(K key) {
+    map.remove(key);
+  }
+
+  public void invalidateIf(Predicate<K> predicate) {
+    map.keySet().removeIf(predicate);
+  }
+
+  public void clear() {
+    map.clear();
+    order.clear();
+    queued.set(0);
+  }
+
+  public int size() {
+    return map.size();
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("size", size());
+    stats.put("maxSize", maxSize);
+    stats.put("hits", getHits());
+    stats.put("misses", getMisses());
+    stats.put("evictions", getEvictions());
+    return stats;
+  }
+
+  private boolean isExpired(CacheEntry<V> entry) {
+    return expires > 0 && System.currentTimeMillis() - entry.time > expires;
+  }
+
+  private void evict() {
+    while(map.size() > maxSize) {
+      Insertion<K> eldest = order.poll();
+      if(eldest == null) {
+        break;
+      }
+      queued.decrementAndGet();
+      CacheEntry<V> entry = map.get(eldest.key);
+      if(entry != null && entry.stamp == eldest.stamp && map.remove(eldest.key, entry)) {
+        evictions.incrementAndGet();
+      }
+    }
+
+    // Invalidated keys stay in the queue until polled, purge them once they pile up
+    if(queued.get() > maxSize * 2) {
+      order.removeIf(this::isStale);
+      queued.set(order.size());
+    }
+  }
+
+  private boolean isStale(Insertion<K> insertion) {
+    CacheEntry<V> entry = map.get(insertion.key);
+    return entry == null || entry.stamp != insertion.stamp;
+  }
+
+  private static class CacheEntry<V> {
+
+    private final V value;
+    private final long stamp;
+    private final long time = System.currentTimeMillis();
+
+    private CacheEntry(V value, long stamp) {
+      this.value = value;
+      this.stamp = stamp;
+    }
+  }
+
+  private static class Insertion<K> {
+
+    private final K key;
+    private final long stamp;
+
+    private Insertion(K key, long stamp) {
+      this.key = key;
+      this.stamp = stamp;
+    }
+  }
+}
@@ -4,7 +4,6 @@ import java.io.BufferedReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.UnsupportedEncodingException;
-import java.lang.annotation.Annotation;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Method;
 import java.net.URI;
@@ -63,6 +62,8 @@ public class Operations {
 	public static boolean IS_LINUX;
 	private static int THREAD_POOLSIZE = 50;
 
+	private static volatile BlocklyTargets blocklyTargets = new BlocklyTargets(0);
+
 	static {
 		String SO = System.getProperty("os.name");
 		if (SO.indexOf(' ') > -1)
@@ -227,7 +228,87 @@ public class Operations {
 	public static final Var callBlockly(Var classNameWithMethod, boolean checkSecurity, String restMethod,
 			Var... params) throws Exception {
 
-		String className = classNameWithMethod.getObjectAsString();
+		BlocklyTarget target = getBlocklyTarget(classNameWithMethod.getObjectAsString());
+
+		if (checkSecurity) {
+			BlocklySecurity.checkSecurity(target.getSecurity(), restMethod);
+		}
+
+		if (target.getMethod() == null) {
+		  throw new Exception(Messages.getString("methodNotFound"));
+    }
+
+		if (!target.isBlockly()) {
+			throw new Exception(Messages.getString("accessDenied"));
+		}
+		List<Object> memoKey = target.getMemoKey(params);
+		if (memoKey != null) {
+			Var memoized = target.getMemoized(memoKey);
+			if (memoized != null) {
+				BlocklyMetrics.recordMemoHit(classNameWithMethod.getObjectAsString());
+				return memoized;
+			}
+		}
+
+		long start = BlocklyMetrics.start();
+		boolean error = true;
+		try {
+			Object o = target.invoke(params);
+			error = false;
+			Var result = Var.valueOf(o);
+			if (memoKey != null) {
+				target.memoize(memoKey, result);
+			}
+			return result;
+		} finally {
+			BlocklyMetrics.record(classNameWithMethod.getObjectAsString(), start, error);
+		}
+	}
+
+  /**
+   * Resolves the "class:method" name once. In debug the targets are discarded
+   * when the class loader changes generation.
+   */
+  private static BlocklyTarget getBlocklyTarget(String classNameWithMethod) throws Exception {
+    long generation = IS_DEBUG ? CronapiClassLoader.getGeneration() : 0;
+    BlocklyTargets targets = blocklyTargets;
+    if (targets.generation != generation) {
+      if (targets.generation > generation) {
+        // Read before the generation changed, while another thread already moved on
+        return resolveBlocklyTarget(classNameWithMethod);
+      }
+      targets = new BlocklyTargets(generation);
+      blocklyTargets = targets;
+    }
+
+    BlocklyTarget target = targets.cache.get(classNameWithMethod);
+    if (target == null) {
+      target = resolveBlocklyTarget(classNameWithMethod);
+      if (!IS_DEBUG || (CronapiClassLoader.isWatching() && CronapiClassLoader.getGeneration() == generation)) {
+        targets.cache.put(classNameWithMethod, target);
+      }
+    }
+    return target;
+  }
+
+  /**
+   * Targets resolved from the classes of a generation of the class loader.
+   * A new generation replaces the whole holder, so a target of a previous
+   * generation is never returned for the current one.
+   */
+  private static final class BlocklyTargets {
+
+    private final long generation;
+    private final ConcurrentCache<String, BlocklyTarget> cache = new ConcurrentCache<>(10000);
+
+    private BlocklyTargets(long generation) {
+      this.generation = generation;
+    }
+  }
+
+	private static BlocklyTarget resolveBlocklyTarget(String classNameWithMethod) throws Exception {
+
+		String className = classNameWithMethod;
 		String method = null;
 		if (className.indexOf(":") > -1) {
 			method = safeNameForMethodBlockly(className.substring(className.indexOf(":") + 1));
@@ -238,7 +319,7 @@ public class Operations {
 
 		try {
       if (IS_DEBUG) {
-        CronapiClassLoader loader = new CronapiClassLoader();
+        CronapiClassLoader loader = CronapiClassLoader.getInstance();
         clazz = loader.findClass(className);
       } else {
         clazz = Class.forName(className);
@@ -260,7 +341,7 @@ public class Operations {
 
       try {
         if (IS_DEBUG) {
-          CronapiClassLoader loader = new CronapiClassLoader();
+          CronapiClassLoader loader = CronapiClassLoader.getInstance();
           clazz = loader.findClass(className);
         } else {
           clazz = Class.forName(className);
@@ -271,10 +352,6 @@ public class Operations {
 
     }
 
-		if (checkSecurity) {
-			BlocklySecurity.checkSecurity(clazz, restMethod);
-		}
-
 		Method methodToCall = method==null?clazz.getMethods()[0]:null;
 		for (Method m : clazz.getMethods()) {
 			if (m.getName().equalsIgnoreCase(method)) {
@@ -283,42 +360,7 @@ public class Operations {
 			}
 		}
 
-		if (methodToCall == null) {
-		  throw new Exception(Messages.getString("methodNotFound"));
-    }
-
-		if (params == null)
-			params = new Var[0];
-
-		Var[] callParams = params;
-
-		if (methodToCall.getParameterCount() != callParams.length) {
-			callParams = new Var[methodToCall.getParameterCount()];
-			for (int i = 0; i < methodToCall.getParameterCount(); i++) {
-				if (i < params.length)
-					callParams[i] = params[i];
-				else
-					callParams[i] = Var.VAR_NULL;
-			}
-		}
-
-		boolean isBlockly = false;
-		for (Annotation annotation : clazz.getAnnotations()) {
-			if (annotation.annotationType().getName().equals("cronapi.CronapiMetaData")) {
-				Method type = annotation.annotationType().getMethod("type");
-				if (type != null) {
-					String value = (String) type.invoke(annotation);
-					if (value != null && value.equals("blockly")) {
-						isBlockly = true;
-					}
-				}
-			}
-		}
-		if (!isBlockly) {
-			throw new Exception(Messages.getString("accessDenied"));
-		}
-		Object o = methodToCall.invoke(clazz, callParams);
-		return Var.valueOf(o);
+		return new BlocklyTarget(clazz, methodToCall);
 	}
 
 	@CronapiMetaData(type = "function", name = "{{encryptPasswordName}}", nameTags = {
@@ -0,0 +1,33 @@
+package cronapi.util;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.apache.commons.io.IOUtils;
+
+public class ResourceUtil {
+
+  /**
+   * @return the last modification time of a classpath resource, read from the
+   *         file itself when possible, or 0 when it's unknown
+   */
+  public static long getLastModified(URL url) {
+    if (url == null) {
+      return 0;
+    }
+    try {
+      if ("file".equals(url.getProtocol())) {
+        return new File(url.toURI()).lastModified();
+      }
+      URLConnection connection = url.openConnection();
+      try {
+        return connection.getLastModified();
+      } finally {
+        IOUtils.closeQuietly(connection.getInputStream());
+      }
+    } catch (Exception e) {
+      return 0;
+    }
+  }
+}
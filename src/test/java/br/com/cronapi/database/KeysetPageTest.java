@@ -0,0 +1,139 @@
+package br.com.cronapi.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.Parameter;
+import javax.persistence.TypedQuery;
+
+import org.junit.Test;
+
+import cronapi.database.KeysetPage;
+
+/**
+ * Testes da reescrita de consultas e dos cursores de {@link KeysetPage}
+ */
+public class KeysetPageTest {
+
+  public static class User {
+
+    private final String id;
+    private final String name;
+    private final Date created;
+
+    public User(String id, String name, Date created) {
+      this.id = id;
+      this.name = name;
+      this.created = created;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public Date getCreated() {
+      return created;
+    }
+  }
+
+  @Test
+  public void testFirstPageAddsKeysToOrder() {
+    KeysetPage page = KeysetPage.prepare("select u from app.entity.User u order by u.name desc", "User",
+        Arrays.asList("id"), null);
+    assertEquals("select u from app.entity.User u ORDER BY u.name DESC, u.id ASC", page.getJpql());
+  }
+
+  @Test
+  public void testNotSupported() {
+    assertNull(KeysetPage.prepare("select u.name from User u", "User", Arrays.asList("id"), null));
+    assertNull(KeysetPage.prepare("select u from User u order by lower(u.name)", "User", Arrays.asList("id"), null));
+    assertNull(KeysetPage.prepare("select u from User u group by u.name", "User", Arrays.asList("id"), null));
+    assertNull(KeysetPage.prepare("select u from User u", "Role", Arrays.asList("id"), null));
+  }
+
+  @Test
+  public void testNextPageSeeksAfterCursor() {
+    String jpql = "select u from User u where u.active = true order by u.name desc";
+    KeysetPage first = KeysetPage.prepare(jpql, "User", Arrays.asList("id"), null);
+    String cursor = first.nextCursor(new User("7", "Maria", null));
+
+    KeysetPage next = KeysetPage.prepare(jpql, "User", Arrays.asList("id"), cursor);
+    assertEquals("select u from User u WHERE (u.active = true) AND ((u.name < :cronapiKeyset0) OR "
+        + "(u.name = :cronapiKeyset0 AND u.id > :cronapiKeyset1)) ORDER BY u.name DESC, u.id ASC", next.getJpql());
+
+    Map<String, Object> bound = bind(next, String.class, String.class);
+    assertEquals("Maria", bound.get("cronapiKeyset0"));
+    assertEquals("7", bound.get("cronapiKeyset1"));
+  }
+
+  @Test
+  public void testValuesAreConvertedToParameterTypes() {
+    String jpql = "select u from User u order by u.created";
+    KeysetPage first = KeysetPage.prepare(jpql, "User", Arrays.asList("id"), null);
+    Date created = new Date(1500000000000L);
+    String cursor = first.nextCursor(new User(null, null, created));
+
+    Map<String, Object> bound = bind(KeysetPage.prepare(jpql, "User", Arrays.asList("id"), cursor),
+        java.sql.Timestamp.class, String.class);
+    assertEquals(new java.sql.Timestamp(created.getTime()), bound.get("cronapiKeyset0"));
+    assertNull(bound.get("cronapiKeyset1"));
+  }
+
+  @Test
+  public void testCursorIsSignedWithTheOrder() {
+    KeysetPage first = KeysetPage.prepare("select u from User u order by u.name", "User", Arrays.asList("id"), null);
+    String cursor = first.nextCursor(new User("7", "Maria", null));
+    assertNotEquals(cursor, KeysetPage.prepare("select u from User u order by u.name desc", "User",
+        Arrays.asList("id"), null).nextCursor(new User("7", "Maria", null)));
+
+    try {
+      KeysetPage.prepare("select u from User u order by u.name desc", "User", Arrays.asList("id"), cursor);
+      fail("Cursor of another order accepted");
+    }
+    catch(RuntimeException e) {
+      // expected
+    }
+
+    try {
+      KeysetPage.prepare("select u from User u order by u.name", "User", Arrays.asList("id"), "not a cursor");
+      fail("Invalid cursor accepted");
+    }
+    catch(RuntimeException e) {
+      // expected
+    }
+  }
+
+  private static Map<String, Object> bind(KeysetPage page, Class<?>... types) {
+    Map<String, Object> bound = new HashMap<>();
+    TypedQuery<?> query = (TypedQuery<?>)Proxy.newProxyInstance(KeysetPageTest.class.getClassLoader(),
+        new Class[] { TypedQuery.class }, (proxy, method, args) -> {
+          if(method.getName().equals("getParameter")) {
+            Class<?> type = types[Integer.parseInt(((String)args[0]).substring(KeysetPage.PARAM_PREFIX.length()))];
+            return parameter(type);
+          }
+          if(method.getName().equals("setParameter")) {
+            bound.put((String)args[0], args[1]);
+          }
+          return proxy;
+        });
+    page.bind(query);
+    return bound;
+  }
+
+  private static Parameter<?> parameter(Class<?> type) {
+    return (Parameter<?>)Proxy.newProxyInstance(KeysetPageTest.class.getClassLoader(), new Class[] { Parameter.class },
+        (proxy, method, args) -> method.getName().equals("getParameterType") ? type : null);
+  }
+}
@@ -0,0 +1,53 @@
+package br.com.cronapi.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import cronapi.database.QueryCounter;
+
+/**
+ * Testes das instruções de contagem derivadas por {@link QueryCounter}
+ */
+public class QueryCounterTest {
+
+  @Test
+  public void testCountSelectedEntity() {
+    assertEquals("select count(u) from User u where u.active = true ",
+        QueryCounter.toCountJpql("select u from User u where u.active = true order by u.name"));
+  }
+
+  @Test
+  public void testCountDistinct() {
+    assertEquals("select count(distinct u.company) from User u",
+        QueryCounter.toCountJpql("select distinct u.company from User u"));
+  }
+
+  @Test
+  public void testCountNotDerived() {
+    assertNull(QueryCounter.toCountJpql("select u.company, count(u) from User u group by u.company"));
+    assertNull(QueryCounter.toCountJpql("select distinct u.name, u.email from User u"));
+    assertNull(QueryCounter.toCountJpql("update User u set u.active = false"));
+  }
+
+  @Test
+  public void testEstimateProjectsKey() {
+    assertEquals("select u.id from User u where u.active = true ",
+        QueryCounter.toEstimateJpql("select u from User u where u.active = true order by u.name", "id"));
+    assertEquals("select distinct u.id from User u join u.roles r",
+        QueryCounter.toEstimateJpql("select distinct u from User u join u.roles r", "id"));
+  }
+
+  @Test
+  public void testEstimateWithoutSingleKey() {
+    assertNull(QueryCounter.toEstimateJpql("select u from User u", null));
+    assertNull(QueryCounter.toEstimateJpql("select u from User u", ""));
+  }
+
+  @Test
+  public void testEstimateOfProjection() {
+    assertNull(QueryCounter.toEstimateJpql("select u.company from User u", "id"));
+    assertNull(QueryCounter.toEstimateJpql("select distinct u.company from User u", "id"));
+  }
+}
@@ -0,0 +1,107 @@
+package br.com.cronapi.report;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.sf.jasperreports.engine.JRPrintElement;
+import net.sf.jasperreports.engine.JRPrintPage;
+import net.sf.jasperreports.engine.JRPrintText;
+import net.sf.jasperreports.engine.JasperCompileManager;
+import net.sf.jasperreports.engine.JasperFillManager;
+import net.sf.jasperreports.engine.JasperPrint;
+import net.sf.jasperreports.engine.JasperReport;
+import net.sf.jasperreports.engine.data.JRBeanCollectionDataSource;
+
+/**
+ * Testes que garantem que o preenchimento de um relatório percorre a lista
+ * de registros uma única vez e em ordem, como exige a leitura por cursor da
+ * ReportQueryList
+ */
+public class ReportFillOrderTest {
+
+  private static final String DESIGN = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+      + "<jasperReport xmlns=\"http://jasperreports.sourceforge.net/jasperreports\" name=\"order\" pageWidth=\"595\" pageHeight=\"200\" columnWidth=\"555\">"
+      + "<field name=\"name\" class=\"java.lang.String\"/>"
+      + "<detail><band height=\"20\"><textField><reportElement x=\"0\" y=\"0\" width=\"100\" height=\"20\"/>"
+      + "<textFieldExpression><![CDATA[$F{name}]]></textFieldExpression></textField></band></detail>"
+      + "</jasperReport>";
+
+  public static class Row {
+
+    private final String name;
+
+    public Row(String name) {
+      this.name = name;
+    }
+
+    public String getName() {
+      return name;
+    }
+  }
+
+  /**
+   * List that only supports the iteration, like a forward only cursor.
+   */
+  private static class ForwardOnlyList extends AbstractList<Object> {
+
+    private final List<Row> rows;
+    private int iterations;
+
+    private ForwardOnlyList(List<Row> rows) {
+      this.rows = rows;
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      iterations++;
+      return Collections.<Object>unmodifiableList(rows).iterator();
+    }
+
+    @Override
+    public Object get(int index) {
+      throw new UnsupportedOperationException("Random access to row " + index);
+    }
+
+    @Override
+    public int size() {
+      return rows.size();
+    }
+  }
+
+  @Test
+  public void testFillReadsRowsInOrder() throws Exception {
+    List<Row> rows = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      rows.add(new Row("row " + i));
+    }
+    ForwardOnlyList list = new ForwardOnlyList(rows);
+
+    JasperReport report = JasperCompileManager.compileReport(new ByteArrayInputStream(DESIGN.getBytes(StandardCharsets.UTF_8)));
+    JasperPrint print = JasperFillManager.fillReport(report, new HashMap<>(), new JRBeanCollectionDataSource(list));
+
+    List<String> printed = new ArrayList<>();
+    for (JRPrintPage page : print.getPages()) {
+      for (JRPrintElement element : page.getElements()) {
+        if (element instanceof JRPrintText) {
+          printed.add(((JRPrintText)element).getFullText());
+        }
+      }
+    }
+
+    assertEquals(1, list.iterations);
+    assertEquals(rows.size(), printed.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals(rows.get(i).getName(), printed.get(i));
+    }
+  }
+}
@@ -0,0 +1,183 @@
+package br.com.cronapi.report;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Query;
+
+import org.eclipse.persistence.queries.ScrollableCursor;
+import org.junit.Test;
+
+import cronapi.database.QueryCursor;
+import cronapi.report.ReportQueryList;
+
+/**
+ * Testes da leitura por cursor e por páginas de {@link ReportQueryList}
+ */
+public class ReportQueryListTest {
+
+  private static final String JPQL = "select u from User u order by u.name";
+
+  /**
+   * Rows of a fake database, read by the EntityManagers of {@link #factory()}.
+   */
+  private final List<Object> rows = new ArrayList<>();
+
+  private final List<EntityManager> entityManagers = new ArrayList<>();
+
+  private final List<Integer> pageStarts = new ArrayList<>();
+
+  public ReportQueryListTest() {
+    for (int i = 0; i < QueryCursor.FETCH_SIZE * 2 + 10; i++) {
+      rows.add("row " + i);
+    }
+  }
+
+  private static class RowsCursor extends ScrollableCursor {
+
+    private final Iterator<Object> rows;
+
+    private RowsCursor(List<Object> rows) {
+      this.rows = rows.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+      return rows.hasNext();
+    }
+
+    @Override
+    public Object next() {
+      return rows.next();
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private EntityManagerFactory factory() {
+    return (EntityManagerFactory) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { EntityManagerFactory.class }, (proxy, method, args) -> {
+          if (method.getName().equals("createEntityManager")) {
+            EntityManager entityManager = entityManager();
+            entityManagers.add(entityManager);
+            return entityManager;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        });
+  }
+
+  private EntityManager entityManager() {
+    boolean[] open = { true };
+    return (EntityManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+        new Class<?>[] { EntityManager.class }, (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "createQuery":
+            return query((String) args[0]);
+          case "isOpen":
+            return open[0];
+          case "close":
+            open[0] = false;
+            return null;
+          case "isJoinedToTransaction":
+            return false;
+          case "clear":
+            return null;
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  private Query query(String jpql) {
+    int[] range = { 0, Integer.MAX_VALUE };
+    return (Query) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Query.class },
+        (proxy, method, args) -> {
+          switch (method.getName()) {
+          case "getParameters":
+            return Collections.emptySet();
+          case "setHint":
+          case "setParameter":
+            return proxy;
+          case "setFirstResult":
+            range[0] = (Integer) args[0];
+            return proxy;
+          case "setMaxResults":
+            range[1] = (Integer) args[0];
+            return proxy;
+          case "getResultList":
+            pageStarts.add(range[0]);
+            return new ArrayList<>(rows.subList(range[0], Math.min(rows.size(), range[0] + range[1])));
+          case "getSingleResult":
+            if (jpql.toLowerCase().startsWith("select count"))
+              return (long) rows.size();
+            return new RowsCursor(rows);
+          default:
+            throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+
+  @Test
+  public void testIterationInOrder() {
+    List<Object> read = new ArrayList<>();
+    try (ReportQueryList list = new ReportQueryList(factory(), JPQL, Collections.emptyMap())) {
+      for (Object row : list) {
+        read.add(row);
+      }
+    }
+    assertEquals(rows, read);
+  }
+
+  @Test
+  public void testGetAcrossPages() {
+    int last = rows.size() - 1;
+    try (ReportQueryList list = new ReportQueryList(factory(), JPQL, Collections.emptyMap())) {
+      assertEquals(rows.size(), list.size());
+      assertEquals("row 0", list.get(0));
+      assertEquals("row " + (QueryCursor.FETCH_SIZE - 1), list.get(QueryCursor.FETCH_SIZE - 1));
+      assertEquals("row " + QueryCursor.FETCH_SIZE, list.get(QueryCursor.FETCH_SIZE));
+      assertEquals("row " + last, list.get(last));
+      assertEquals("row 1", list.get(1));
+    }
+    assertEquals(4, pageStarts.size());
+    assertEquals(Integer.valueOf(0), pageStarts.get(0));
+    assertEquals(Integer.valueOf(QueryCursor.FETCH_SIZE), pageStarts.get(1));
+    assertEquals(Integer.valueOf(QueryCursor.FETCH_SIZE * 2), pageStarts.get(2));
+    assertEquals(Integer.valueOf(0), pageStarts.get(3));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testGetOutOfBounds() {
+    try (ReportQueryList list = new ReportQueryList(factory(), JPQL, Collections.emptyMap())) {
+      list.get(rows.size());
+    }
+  }
+
+  @Test
+  public void testCloseClosesEveryEntityManager() {
+    ReportQueryList list = new ReportQueryList(factory(), JPQL, Collections.emptyMap());
+    list.iterator().next();
+    list.iterator().next();
+    list.get(QueryCursor.FETCH_SIZE);
+    assertEquals(3, entityManagers.size());
+    for (EntityManager entityManager : entityManagers) {
+      assertTrue(entityManager.isOpen());
+    }
+
+    list.close();
+    for (EntityManager entityManager : entityManagers) {
+      assertFalse(entityManager.isOpen());
+    }
+  }
+}
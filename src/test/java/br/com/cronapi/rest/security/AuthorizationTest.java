@@ -0,0 +1,71 @@
+package br.com.cronapi.rest.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+
+import cronapi.RestClient;
+import cronapi.rest.security.Authorization;
+
+/**
+ * Testes da avaliação das listas de papéis por {@link Authorization}
+ */
+public class AuthorizationTest {
+
+  @After
+  public void tearDown() {
+    RestClient.removeClient();
+  }
+
+  private void login(String... authorities) {
+    SimpleGrantedAuthority[] granted = new SimpleGrantedAuthority[authorities.length];
+    for (int i = 0; i < authorities.length; i++) {
+      granted[i] = new SimpleGrantedAuthority(authorities[i]);
+    }
+    RestClient.getRestClient().setUser(new User("user", "", Arrays.asList(granted)));
+  }
+
+  @Test
+  public void testParseRoles() {
+    assertEquals(new HashSet<>(Arrays.asList("administrators", "financeiro")),
+        Authorization.parseRoles(" Administrators; ;Financeiro;"));
+    assertEquals(Collections.emptySet(), Authorization.parseRoles(""));
+    assertSame(Authorization.parseRoles("Public"), Authorization.parseRoles("Public"));
+  }
+
+  @Test
+  public void testPublicRoles() {
+    assertTrue(Authorization.isAuthorized("Public"));
+    assertTrue(Authorization.isAuthorized("administrators;permitAll"));
+  }
+
+  @Test
+  public void testAuthenticated() {
+    assertFalse(Authorization.isAuthorized("authenticated"));
+    login();
+    assertTrue(Authorization.isAuthorized("authenticated"));
+  }
+
+  @Test
+  public void testAuthorities() {
+    assertFalse(Authorization.isAuthorized("Administrators"));
+
+    login("Financeiro");
+    assertFalse(Authorization.isAuthorized("Administrators"));
+    assertTrue(Authorization.isAuthorized("Administrators;Financeiro"));
+
+    login("Administrators", "Financeiro", "Vendas");
+    assertTrue(Authorization.isAuthorized("administrators"));
+    assertFalse(Authorization.isAuthorized("Compras;Estoque"));
+  }
+}
@@ -0,0 +1,71 @@
+package br.com.cronapi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import cronapi.util.BlocklyMetrics;
+import cronapi.util.BlocklyMetrics.FunctionStats;
+
+/**
+ * Testes do histograma de latências de {@link BlocklyMetrics}
+ */
+public class BlocklyMetricsTest {
+
+  @After
+  public void tearDown() {
+    BlocklyMetrics.clear();
+  }
+
+  @Test
+  public void testSmallValuesHaveOwnBucket() {
+    for (long micros = 0; micros < 4; micros++) {
+      assertEquals(micros, BlocklyMetrics.bucket(micros));
+      assertEquals(micros + 1, BlocklyMetrics.upperBound((int) micros));
+    }
+  }
+
+  @Test
+  public void testBucketsAreOrdered() {
+    int previous = BlocklyMetrics.bucket(0);
+    for (long micros = 1; micros < 1 << 20; micros++) {
+      int bucket = BlocklyMetrics.bucket(micros);
+      assertTrue(bucket == previous || bucket == previous + 1);
+      previous = bucket;
+    }
+  }
+
+  @Test
+  public void testUpperBoundError() {
+    for (long micros = 1; micros < Long.MAX_VALUE / 2; micros += micros / 2 + 1) {
+      long upperBound = BlocklyMetrics.upperBound(BlocklyMetrics.bucket(micros));
+      assertTrue(upperBound >= micros);
+      assertTrue(upperBound <= micros * 1.25 + 1);
+      assertTrue(BlocklyMetrics.bucket(upperBound - 1) == BlocklyMetrics.bucket(micros));
+    }
+  }
+
+  @Test
+  public void testLastBucket() {
+    assertTrue(BlocklyMetrics.bucket(Long.MAX_VALUE) < 252);
+  }
+
+  @Test
+  public void testRecord() {
+    long start = BlocklyMetrics.start();
+    BlocklyMetrics.record("Test:ok", start - TimeUnit.MILLISECONDS.toNanos(10), false);
+    BlocklyMetrics.record("Test:ok", start - TimeUnit.MILLISECONDS.toNanos(10), true);
+
+    FunctionStats stats = BlocklyMetrics.getStats().get(0);
+    assertEquals("Test:ok", stats.getName());
+    assertEquals(2, stats.getCalls());
+    assertEquals(1, stats.getErrors());
+    assertTrue(stats.getMaxMillis() >= 10);
+    assertTrue(stats.getP50Millis() >= 10);
+    assertTrue(stats.getP99Millis() >= stats.getP50Millis());
+  }
+}
@@ -0,0 +1,167 @@
+package br.com.cronapi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import cronapi.CronapiMemoize;
+import cronapi.CronapiMetaData;
+import cronapi.Var;
+import cronapi.i18n.Messages;
+import cronapi.util.BlocklyMetrics;
+import cronapi.util.BlocklyMetrics.FunctionStats;
+import cronapi.util.Operations;
+
+/**
+ * Testes da chamada de blocklys resolvidos por nome em
+ * {@link Operations#callBlockly(Var, Var...)}
+ */
+public class BlocklyTargetTest {
+
+  private static final String BLOCKLY = BlocklyFixture.class.getName();
+
+  @CronapiMetaData(type = "blockly")
+  public static class BlocklyFixture {
+
+    public static Var join(Var first, Var second, Var third) {
+      return Var.valueOf(first.getObject() + "," + second.getObject() + "," + third.getObject());
+    }
+
+    public static Var fail(Var message) {
+      throw new IllegalStateException(message.getObjectAsString());
+    }
+  }
+
+  @CronapiMetaData(type = "blockly")
+  @CronapiMemoize
+  public static class MemoizedFixture {
+
+    static final AtomicInteger CALLS = new AtomicInteger();
+
+    public static Var text(Var value) {
+      CALLS.incrementAndGet();
+      return Var.valueOf("text " + value.getObject());
+    }
+
+    public static Var list(Var value) {
+      CALLS.incrementAndGet();
+      return Var.valueOf(new ArrayList<>(Arrays.asList(value.getObject())));
+    }
+
+    public static Var date(Var value) {
+      CALLS.incrementAndGet();
+      Calendar calendar = Calendar.getInstance();
+      calendar.setTimeInMillis(0);
+      return Var.valueOf(calendar);
+    }
+  }
+
+  public static class FunctionFixture {
+
+    public static Var join(Var first) {
+      return first;
+    }
+  }
+
+  private static Var call(String name, Object... params) throws Exception {
+    Var[] vars = new Var[params.length];
+    for (int i = 0; i < params.length; i++) {
+      vars[i] = Var.valueOf(params[i]);
+    }
+    return Operations.callBlockly(Var.valueOf(name), vars);
+  }
+
+  @Test
+  public void testAllParameters() throws Exception {
+    assertEquals("a,b,c", call(BLOCKLY + ":join", "a", "b", "c").getObjectAsString());
+  }
+
+  @Test
+  public void testMissingParametersAreNull() throws Exception {
+    assertEquals("a,null,null", call(BLOCKLY + ":join", "a").getObjectAsString());
+    assertEquals("null,null,null", call(BLOCKLY + ":join").getObjectAsString());
+  }
+
+  @Test
+  public void testExtraParametersAreIgnored() throws Exception {
+    assertEquals("a,b,c", call(BLOCKLY + ":join", "a", "b", "c", "d").getObjectAsString());
+  }
+
+  @Test
+  public void testExceptionIsWrapped() throws Exception {
+    try {
+      call(BLOCKLY + ":fail", "boom");
+      fail();
+    } catch (InvocationTargetException e) {
+      assertTrue(e.getCause() instanceof IllegalStateException);
+      assertEquals("boom", e.getCause().getMessage());
+    }
+  }
+
+  @Test
+  public void testOnlyBlocklys() throws Exception {
+    try {
+      call(FunctionFixture.class.getName() + ":join", "a");
+      fail();
+    } catch (InvocationTargetException e) {
+      throw e;
+    } catch (Exception e) {
+      assertEquals(Messages.getString("accessDenied"), e.getMessage());
+    }
+  }
+
+  @Test
+  public void testMemoizedByParameters() throws Exception {
+    BlocklyMetrics.clear();
+    String name = MemoizedFixture.class.getName() + ":text";
+    int calls = MemoizedFixture.CALLS.get();
+    assertEquals("text 1", call(name, 1).getObjectAsString());
+    assertEquals("text 1", call(name, 1).getObjectAsString());
+    assertEquals("text 2", call(name, 2).getObjectAsString());
+    assertEquals(calls + 2, MemoizedFixture.CALLS.get());
+
+    FunctionStats stats = null;
+    for (FunctionStats function : BlocklyMetrics.getStats()) {
+      if (function.getName().equals(name)) {
+        stats = function;
+      }
+    }
+    assertEquals(2, stats.getCalls());
+    assertEquals(1, stats.getMemoHits());
+  }
+
+  @Test
+  public void testComplexParametersAreNotMemoized() throws Exception {
+    String name = MemoizedFixture.class.getName() + ":text";
+    int calls = MemoizedFixture.CALLS.get();
+    call(name, Arrays.asList(1));
+    call(name, Arrays.asList(1));
+    assertEquals(calls + 2, MemoizedFixture.CALLS.get());
+  }
+
+  @Test
+  public void testMutableResultsAreNotMemoized() throws Exception {
+    String name = MemoizedFixture.class.getName() + ":list";
+    int calls = MemoizedFixture.CALLS.get();
+    call(name, "a").getObjectAsList().add(Var.valueOf("b"));
+    assertEquals(1, call(name, "a").getObjectAsList().size());
+    assertEquals(calls + 2, MemoizedFixture.CALLS.get());
+  }
+
+  @Test
+  public void testMemoizedDatesAreCopied() throws Exception {
+    String name = MemoizedFixture.class.getName() + ":date";
+    int calls = MemoizedFixture.CALLS.get();
+    call(name, "a").getObjectAsDateTime().add(Calendar.YEAR, 1);
+    assertEquals(0, call(name, "a").getObjectAsDateTime().getTimeInMillis());
+    assertEquals(calls + 1, MemoizedFixture.CALLS.get());
+  }
+}
@@ -0,0 +1,95 @@
+package br.com.cronapi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import cronapi.util.ConcurrentCache;
+
+/**
+ * Testes de remoção por tamanho e por expiração do {@link ConcurrentCache}
+ */
+public class ConcurrentCacheTest {
+
+  @Test
+  public void testEvictsOldestEntries() {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.put("c", 3);
+
+    assertEquals(2, cache.size());
+    assertNull(cache.get("a"));
+    assertEquals(Integer.valueOf(2), cache.get("b"));
+    assertEquals(Integer.valueOf(3), cache.get("c"));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testReplacingKeepsOrder() {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.put("a", 10);
+    cache.put("c", 3);
+
+    assertNull(cache.get("a"));
+    assertEquals(Integer.valueOf(2), cache.get("b"));
+  }
+
+  @Test
+  public void testInvalidatedKeysAreNotEvicted() {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.invalidate("a");
+    cache.put("c", 3);
+
+    assertEquals(2, cache.size());
+    assertEquals(0, cache.getEvictions());
+    for(int i = 0; i < 10; i++) {
+      cache.invalidate("c");
+      cache.put("c", i);
+    }
+    assertEquals(Integer.valueOf(2), cache.get("b"));
+    assertEquals(Integer.valueOf(9), cache.get("c"));
+  }
+
+  @Test
+  public void testReinsertedKeyKeepsNewPosition() {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.invalidate("a");
+    cache.put("c", 3);
+    cache.put("a", 4);
+
+    assertNull(cache.get("b"));
+    assertEquals(Integer.valueOf(3), cache.get("c"));
+    assertEquals(Integer.valueOf(4), cache.get("a"));
+    assertEquals(1, cache.getEvictions());
+  }
+
+  @Test
+  public void testExpiredEntries() throws InterruptedException {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(10, 20);
+    cache.put("a", 1);
+    assertEquals(Integer.valueOf(1), cache.get("a"));
+
+    Thread.sleep(50);
+    assertNull(cache.get("a"));
+    assertEquals(0, cache.size());
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  @Test
+  public void testComputeIfAbsent() {
+    ConcurrentCache<String, Integer> cache = new ConcurrentCache<>(10);
+    assertEquals(Integer.valueOf(1), cache.computeIfAbsent("a", k -> 1));
+    assertEquals(Integer.valueOf(1), cache.computeIfAbsent("a", k -> 2));
+    assertNull(cache.computeIfAbsent("b", k -> null));
+    assertEquals(1, cache.size());
+  }
+}